@@ -1,16 +1,31 @@
 package com.ctriposs.bigmap;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
+import com.ctriposs.bigmap.page.PageDeletedException;
+import com.ctriposs.bigmap.utils.BufferCleaner;
+import com.ctriposs.bigmap.utils.Clock;
+import com.ctriposs.bigmap.utils.TickerClock;
+
+public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap, INearCacheStats {
 	
 	private final static Logger logger = LoggerFactory.getLogger(BigConcurrentHashMapImpl.class);
 
@@ -44,10 +59,62 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
      */
     static final int DEFAULT_PURGE_INTERVAL = 1000 * 60 * 20;
     
+    /**
+     * The default shortest purge interval adaptive expiration speeds up to
+     */
+    static final int DEFAULT_MIN_PURGE_INTERVAL = 1000;
+    
+    /**
+     * Purge runs more often while more than this fraction of the entries with time to live
+     * expire per run, and backs off when none does
+     */
+    static final float ACTIVE_EXPIRE_THRESHOLD = 0.25f;
+    
     /**
      * Should the on disk map be reloaded into memory on map initialization
      */
     static final boolean DEFAULT_RELOAD_ON_STARTUP = false;
+    
+    /**
+     * The default window in which a second access promotes an entry to the hot tier
+     */
+    static final long DEFAULT_HOT_TIER_PROMOTION_WINDOW = 1000 * 60;
+    
+    /**
+     * Number of hot entries sampled to pick the least recently accessed one for demotion
+     */
+    static final int HOT_TIER_EVICTION_SAMPLES = 5;
+    
+    /**
+     * Number of entries sampled to pick the least recently accessed one for size bound eviction
+     */
+    static final int EVICTION_SAMPLES = 5;
+    
+    /**
+     * Number of random buckets probed to collect the eviction samples
+     */
+    static final int EVICTION_PROBES = 4 * EVICTION_SAMPLES;
+    
+    /**
+     * The default max number of notifications passed to the removal listener in one call
+     */
+    static final int DEFAULT_REMOVAL_BATCH_SIZE = 256;
+    
+    /**
+     * Number of index items scanned at a time by iterators, the live entries of a batch are
+     * visited in data page and offset order
+     */
+    static final int ITERATION_BATCH_SIZE = 1024;
+    
+    /**
+     * Tick of the expiration timing wheel, the resolution of scheduled purge
+     */
+    static final long EXPIRY_WHEEL_TICK_MS = 100;
+    
+    /**
+     * The default max number of due entries purged per segment lock acquisition
+     */
+    static final int DEFAULT_PURGE_SLICE_SIZE = 1000;
 
     /**
      * The maximum capacity, used if a higher value is implicitly
@@ -87,6 +154,18 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	 */
 	final IMapEntryFactory mapEntryFactory;
 	
+	/**
+	 * Time source of expiration and access times, the ticker shared by all maps when none is configured.
+	 */
+	final Clock clock;
+	final TickerClock ticker;
+	private final AtomicBoolean tickerReleased = new AtomicBoolean(false);
+	
+	/**
+	 * Delivers removal notifications to the configured listener, null means no listener.
+	 */
+	final RemovalDispatcher removalDispatcher;
+	
 	/**
 	 * map file directory
 	 */
@@ -97,9 +176,14 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	final String mapName;
 
 	/**
-	 * Expiration purge timer
+	 * Expiration purge timer, every run schedules the next one after the adaptive delay
 	 */
 	Timer purgeTimer;
+	volatile long purgeDelayInMs;
+	final AtomicBoolean purgeRunning = new AtomicBoolean(false);
+	volatile boolean purgeStopped = false;
+	// segments are purged in parallel by this pool, null means purge runs on the timer thread
+	ExecutorService purgeExecutor;
 	
 	final BigConfig config;
 	
@@ -129,6 +213,16 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
     	volatile long index;
         final int hash;
         HashEntry next;
+        // off-heap copy of a frequently accessed entry, guarded by the segment lock
+        HotEntry hot;
+        // on-heap copy of a frequently read entry, guarded by the segment lock
+        NearCache.Node near;
+        // expiration timing wheel links, guarded by the segment lock
+        HashEntry wheelPrev;
+        HashEntry wheelNext;
+        long expiryTick;
+        // access time newer than the mapped one, 0 if the mapped one is current, guarded by the segment lock
+        long accessedTime;
 
         HashEntry(long index, int hash, HashEntry next) {
             this.index = index;
@@ -141,6 +235,44 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
         }
     }
     
+    /**
+     * Hot tier copy of a map entry, the key and value are kept in direct memory so reads
+     * don't touch the mapped files. The mapped entry stays the source of truth, the access
+     * time is kept here while hot and written back on demotion.
+     */
+    static final class HotEntry {
+    	final ByteBuffer data; // key followed by value
+    	final int keyLength;
+    	final long ttlInMs;
+    	final long expiryTime; // fixed expiration time, 0 if it slides with access
+    	long lastAccessedTime;
+    	int slot; // position in the segment hot list
+    	
+    	HotEntry(ByteBuffer data, int keyLength, long ttlInMs, long expiryTime, long lastAccessedTime) {
+    		this.data = data;
+    		this.keyLength = keyLength;
+    		this.ttlInMs = ttlInMs;
+    		this.expiryTime = expiryTime;
+    		this.lastAccessedTime = lastAccessedTime;
+    	}
+    	
+    	boolean keyEquals(byte[] key) {
+    		if (key.length != keyLength) return false;
+    		for(int i = 0; i < keyLength; i++) {
+    			if (data.get(i) != key[i]) return false;
+    		}
+    		return true;
+    	}
+    	
+    	byte[] getValue() {
+    		byte[] value = new byte[data.capacity() - keyLength];
+    		ByteBuffer view = data.duplicate();
+    		view.position(keyLength);
+    		view.get(value);
+    		return value;
+    	}
+    }
+    
     /**
      * Segments are specialized versions of hash tables.  This
      * subclasses from ReentrantLock opportunistically, just to
@@ -179,11 +311,62 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
     	 * Factory managing the creation, recycle/reuse of map entries mapped to disk files.
     	 */
     	final IMapEntryFactory mapEntryFactory;
+    	
+    	final Clock clock;
+    	
+    	/**
+    	 * Hot tier budget of this segment in bytes, 0 means no hot tier.
+    	 */
+    	final long maxHotBytes;
+    	final long hotPromotionWindowMs;
+    	transient long hotBytes;
+    	transient final List<HashEntry> hotEntries = new ArrayList<HashEntry>();
+    	transient final Random random = new Random();
+    	transient volatile long hotHitCount;
+    	
+    	/**
+    	 * On-heap near cache of this segment, null means no near cache.
+    	 */
+    	transient final NearCache nearCache;
+    	
+    	/**
+    	 * Size bound of this segment in entries and key plus value bytes, 0 means unbounded.
+    	 */
+    	final long maxEntries;
+    	final long maxBytes;
+    	transient volatile long usedBytes;
+    	transient volatile long evictionCount;
+    	transient volatile long purgedCount;
+    	
+    	/**
+    	 * Entries with time to live by expiration deadline.
+    	 */
+    	transient final ExpiryWheel expiryWheel;
+    	
+    	/**
+    	 * Reads write the access time to the index page only once it is this much behind, 0 means every read.
+    	 */
+    	final long accessTimeWriteIntervalMs;
+    	
+    	/**
+    	 * Removal notifications of this segment are queued here, null means no listener.
+    	 */
+    	transient final RemovalDispatcher removalDispatcher;
 
-        Segment(int initialCapacity, float lf, IMapEntryFactory mapEntryFactory) {
+        Segment(int initialCapacity, float lf, IMapEntryFactory mapEntryFactory, Clock clock, long maxHotBytes, long hotPromotionWindowMs, 
+        		long maxNearCacheBytes, long maxEntries, long maxBytes, long accessTimeWriteIntervalMs, RemovalDispatcher removalDispatcher) {
         	super(false);
             loadFactor = lf;
             this.mapEntryFactory = mapEntryFactory;
+            this.clock = clock;
+            this.removalDispatcher = removalDispatcher;
+            this.accessTimeWriteIntervalMs = accessTimeWriteIntervalMs;
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            this.expiryWheel = new ExpiryWheel(EXPIRY_WHEEL_TICK_MS, clock.currentTimeMillis());
+            this.maxHotBytes = maxHotBytes;
+            this.hotPromotionWindowMs = hotPromotionWindowMs;
+            this.nearCache = maxNearCacheBytes > 0 ? new NearCache(maxNearCacheBytes) : null;
             setTable(HashEntry.newArray(initialCapacity));
         }
 
@@ -221,10 +404,11 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	                HashEntry e = tab[index];
 	                while (e != null) {
 	                	MapEntry me = this.mapEntryFactory.findMapEntryByIndex(e.index);
-	                    if (e.hash == hash && Arrays.equals(key, me.getEntryKey())) {
+	                    if (e.hash == hash && this.keyEquals(e, me, key)) {
 	                    	
-	                    	if (this.isExpired(me)) {
-	                    		this.mapEntryFactory.release(me);
+	                    	if (this.isExpired(e, me)) {
+	                    		this.notifyRemoval(me, RemovalCause.EXPIRED);
+	                    		this.releaseEntry(e, me);
 	                            
 	                            this.removeEntry(tab, index, e);
 	                            
@@ -232,8 +416,32 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	                    		
 	                    		return null;
 	                    	} else {
-	                    		me.putLastAccessedTime(System.currentTimeMillis());
-	                    	    return me.getEntryValue();
+	                    		long now = clock.currentTimeMillis();
+	                    		if (nearCache != null) {
+	                    			nearCache.recordAccess(hash);
+	                    			if (e.near != null) {
+	                    				nearCache.hit(e.near);
+	                    				this.touch(e, me, now);
+	                    				return e.near.value.clone();
+	                    			}
+	                    		}
+	                    		byte[] value;
+	                    		if (e.hot != null) {
+	                    			hotHitCount++;
+	                    			e.hot.lastAccessedTime = now;
+	                    			value = e.hot.getValue();
+	                    		} else {
+	                    			long lastAccessedTime = this.getLastAccessedTime(e, me);
+	                    			this.touch(e, me, now);
+	                    			value = me.getEntryValue();
+	                    			if (maxHotBytes > 0 && now - lastAccessedTime <= hotPromotionWindowMs) {
+	                    				this.promote(e, key, value, me.getTimeToLive(), me.getExpiryPolicy() != ExpiryPolicy.AFTER_ACCESS ? me.getTimeToLive() : 0L, now);
+	                    			}
+	                    		}
+	                    		if (nearCache != null) {
+	                    			nearCache.miss(e, key, value);
+	                    		}
+	                    	    return value;
 	                    	}
 	                    }
 	                    e = e.next;
@@ -245,6 +453,108 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
             return null;
         }
         
+        InputStream getValueStream(final byte[] key, int hash) throws IOException {
+            if (count != 0) { // read-volatile
+	        	lock();
+	        	try {
+	        		int c = count - 1;
+	                HashEntry[] tab = table;
+	                int index = hash & (tab.length - 1);
+	                HashEntry e = tab[index];
+	                while (e != null) {
+	                	MapEntry me = this.mapEntryFactory.findMapEntryByIndex(e.index);
+	                    if (e.hash == hash && this.keyEquals(e, me, key)) {
+	                    	
+	                    	if (this.isExpired(e, me)) {
+	                    		this.notifyRemoval(me, RemovalCause.EXPIRED);
+	                    		this.releaseEntry(e, me);
+	                            
+	                            this.removeEntry(tab, index, e);
+	                            
+	                            count = c; // write-volatile
+	                    		
+	                    		return null;
+	                    	} else {
+	                    		this.touch(e, me, clock.currentTimeMillis());
+	                    	    return me.getEntryValueStream();
+	                    	}
+	                    }
+	                    e = e.next;
+	                }
+	        	} finally {
+	        		unlock();
+	        	}
+            }
+            return null;
+        }
+        
+        /**
+         * Is the index item the current entry of the key and not expired, for iteration.
+         * Nothing is touched or released.
+         */
+        boolean isLive(final byte[] key, int hash, long index) throws IOException {
+            if (count != 0) { // read-volatile
+	        	lock();
+	        	try {
+	                for(HashEntry e = getFirst(hash); e != null; e = e.next) {
+	                	if (e.index == index) {
+	                		MapEntry me = this.mapEntryFactory.findMapEntryByIndex(index);
+	                		return e.hash == hash && this.keyEquals(e, me, key) && !this.isExpired(e, me);
+	                	}
+	                }
+	        	} finally {
+	        		unlock();
+	        	}
+            }
+            return false;
+        }
+        
+        /**
+         * Value of the key without recording an access, for iteration.
+         * Expired entries are left to purge.
+         */
+        byte[] peek(final byte[] key, int hash) throws IOException {
+            if (count != 0) { // read-volatile
+	        	lock();
+	        	try {
+	                for(HashEntry e = getFirst(hash); e != null; e = e.next) {
+	                	MapEntry me = this.mapEntryFactory.findMapEntryByIndex(e.index);
+	                    if (e.hash == hash && this.keyEquals(e, me, key)) {
+	                    	if (this.isExpired(e, me)) return null;
+	                    	if (e.near != null) return e.near.value.clone();
+	                    	if (e.hot != null) return e.hot.getValue();
+	                    	return me.getEntryValue();
+	                    }
+	                }
+	        	} finally {
+	        		unlock();
+	        	}
+            }
+            return null;
+        }
+        
+        /**
+         * Acquire a map entry and fill it with the key, value and time to live, a fixed expiration
+         * time is kept in place of the time to live.
+         * Call only while holding lock.
+         */
+        MapEntry acquireMapEntry(byte[] key, byte[] value, long ttlInMs, ExpiryPolicy policy) throws IOException {
+        	long now = clock.currentTimeMillis();
+        	if (ttlInMs <= 0) {
+        		policy = ExpiryPolicy.AFTER_ACCESS;
+        	} else if (policy == ExpiryPolicy.AFTER_WRITE) {
+        		ttlInMs = now + ttlInMs;
+        	}
+        	MapEntry me = this.mapEntryFactory.acquire(key.length, value.length, policy != ExpiryPolicy.AFTER_ACCESS ? ttlInMs : 0L);
+        	usedBytes += key.length + value.length;
+            me.putEntryKey(key);
+            me.putEntryValue(value);
+            me.putLastAccessedTime(now);
+            me.putTimeToLive(ttlInMs);
+            me.putExpiryPolicy(policy);
+            return me;
+        }
+        
         void removeEntry(HashEntry[] tab, int index, HashEntry e) {
             HashEntry first = tab[index];
             
@@ -271,10 +581,11 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	                HashEntry e = tab[index];
 	                while (e != null) {
 	                	MapEntry me = this.mapEntryFactory.findMapEntryByIndex(e.index);
-	                    if (e.hash == hash && Arrays.equals(key, me.getEntryKey())) {
+	                    if (e.hash == hash && this.keyEquals(e, me, key)) {
 	                    	
-	                    	if (this.isExpired(me)) {
-	                    		this.mapEntryFactory.release(me);
+	                    	if (this.isExpired(e, me)) {
+	                    		this.notifyRemoval(me, RemovalCause.EXPIRED);
+	                    		this.releaseEntry(e, me);
 	                            
 	                            this.removeEntry(tab, index, e);
 	                            
@@ -282,7 +593,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	                    		
 	                    		return false;
 	                    	} else {
-	                    		me.putLastAccessedTime(System.currentTimeMillis());
+	                    		this.touch(e, me, clock.currentTimeMillis());
 	                    	    return true;
 	                    	}
 	                    	
@@ -296,7 +607,80 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
             return false;
         }
         
-        boolean replace(byte[] key, int hash, byte[] oldValue, byte[] newValue, long ttlInMs) throws IOException {
+        boolean touch(final byte[] key, int hash) throws IOException {
+            return this.expire(key, hash, -1L);
+        }
+        
+        /**
+         * Change the time to live of a live entry in place, counted from now, 0 means "forever" and
+         * a negative time to live only records an access. The value is not rewritten, except for an
+         * entry in an expiry bucket page whose expiration is extended, the page may go away before.
+         */
+        boolean expire(final byte[] key, int hash, long ttlInMs) throws IOException {
+            if (count != 0) { // read-volatile
+	        	lock();
+		        try {
+		        	int c = count - 1;
+	                HashEntry[] tab = table;
+	                int index = hash & (tab.length - 1);
+	                HashEntry e = tab[index];
+	                while (e != null) {
+	                	MapEntry me = this.mapEntryFactory.findMapEntryByIndex(e.index);
+	                    if (e.hash == hash && this.keyEquals(e, me, key)) {
+	                    	
+	                    	if (this.isExpired(e, me)) {
+	                    		this.notifyRemoval(me, RemovalCause.EXPIRED);
+	                    		this.releaseEntry(e, me);
+	                            
+	                            this.removeEntry(tab, index, e);
+	                            
+	                            count = c; // write-volatile
+	                    		
+	                    		return false;
+	                    	}
+	                    	
+	                    	long now = clock.currentTimeMillis();
+	                    	if (ttlInMs < 0) {
+	                    		this.touch(e, me, now);
+	                    		return true;
+	                    	}
+	                    	
+	                    	ExpiryPolicy policy = me.getExpiryPolicy();
+	                    	long expiryTime = ttlInMs > 0 ? now + ttlInMs : 0L;
+	                    	if (me.isBucketed() && (expiryTime == 0 || expiryTime > me.getTimeToLive())) {
+	                    		byte[] value = me.getEntryValue();
+	                    		this.releaseEntry(e, me);
+	                    		me = this.acquireMapEntry(key, value, expiryTime, ExpiryPolicy.DEADLINE);
+	                    		if (expiryTime > 0) {
+	                    			me.putExpiryPolicy(policy);
+	                    		}
+	                    		e.index = me.getIndex();
+	                    	} else {
+	                    		if (e.hot != null) { // the hot copy keeps the time to live it was promoted with
+	                    			this.demote(e);
+	                    		}
+	                    		if (policy == ExpiryPolicy.AFTER_ACCESS) {
+	                    			me.putLastAccessedTime(now);
+	                    			e.accessedTime = 0L;
+	                    			me.putTimeToLive(ttlInMs);
+	                    		} else {
+	                    			me.putTimeToLive(expiryTime);
+	                    		}
+	                    		expiryWheel.unschedule(e);
+	                    	}
+	                    	this.scheduleExpiry(e, me);
+	                    	return true;
+	                    }
+	                    e = e.next;
+	                }    
+	        	} finally {
+	        		unlock();
+	        	}
+            }
+            return false;
+        }
+        
+        boolean replace(byte[] key, int hash, byte[] oldValue, byte[] newValue, long ttlInMs, ExpiryPolicy policy) throws IOException {
             lock();
             try {
                 HashEntry e = getFirst(hash);
@@ -304,7 +688,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                 while (e != null) {
                 	me = this.mapEntryFactory.findMapEntryByIndex(e.index);
                 	
-                	if (e.hash == hash && Arrays.equals(key, me.getEntryKey())) {
+                	if (e.hash == hash && this.keyEquals(e, me, key)) {
                 		break;
                 	}
                 	
@@ -314,16 +698,12 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                 boolean replaced = false;
                 if (e != null && Arrays.equals(oldValue, me.getEntryValue())) {
                     replaced = true;
-                    this.mapEntryFactory.release(me);
-                    me = this.mapEntryFactory.acquire(key.length + newValue.length);
-                    me.putKeyLength(key.length);
-                    me.putValueLength(newValue.length);
-                    me.putEntryKey(key);
-                    me.putEntryValue(newValue);
-                    me.putLastAccessedTime(System.currentTimeMillis());
-                    me.putTimeToLive(ttlInMs);
+                    this.releaseEntry(e, me);
+                    me = this.acquireMapEntry(key, newValue, ttlInMs, policy);
                     
                     e.index = me.getIndex();
+                    this.scheduleExpiry(e, me);
+                    this.evict(e);
                 }
                 return replaced;
             } finally {
@@ -331,7 +711,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
             }
         }
         
-        byte[] replace(byte[] key, int hash, byte[] newValue, long ttlInMs) throws IOException {
+        byte[] replace(byte[] key, int hash, byte[] newValue, long ttlInMs, ExpiryPolicy policy) throws IOException {
             lock();
             try {
                 HashEntry e = getFirst(hash);
@@ -339,7 +719,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                 while (e != null) {
                 	me = this.mapEntryFactory.findMapEntryByIndex(e.index);
                 	
-                	if (e.hash == hash && Arrays.equals(key, me.getEntryKey())) {
+                	if (e.hash == hash && this.keyEquals(e, me, key)) {
                 		break;
                 	}
                 	
@@ -349,16 +729,12 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                 byte[] oldValue = null;
                 if (e != null) {
                     oldValue = me.getEntryValue();
-                    this.mapEntryFactory.release(me);
-                    me = this.mapEntryFactory.acquire(key.length + newValue.length);
-                    me.putKeyLength(key.length);
-                    me.putValueLength(newValue.length);
-                    me.putEntryKey(key);
-                    me.putEntryValue(newValue);
-                    me.putLastAccessedTime(System.currentTimeMillis());
-                    me.putTimeToLive(ttlInMs);
+                    this.releaseEntry(e, me);
+                    me = this.acquireMapEntry(key, newValue, ttlInMs, policy);
                     
                     e.index = me.getIndex();
+                    this.scheduleExpiry(e, me);
+                    this.evict(e);
                 }
                 return oldValue;
             } finally {
@@ -377,14 +753,17 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                 int index = hash & (tab.length - 1);
                 HashEntry first = tab[index];
                 
-                tab[index] = new HashEntry(me.getIndex(), hash, first);
+                HashEntry e = new HashEntry(me.getIndex(), hash, first);
+                tab[index] = e;
                 count = c; // write-volatile
+                usedBytes += me.getKeyLength() + me.getValueLength();
+                this.scheduleExpiry(e, me);
         	} finally {
         		unlock();
         	}
         }
 
-        byte[] put(byte[] key, int hash, byte[] value, boolean onlyIfAbsent, long ttlInMs) throws IOException {
+        byte[] put(byte[] key, int hash, byte[] value, boolean onlyIfAbsent, long ttlInMs, ExpiryPolicy policy) throws IOException {
             lock();
             try {
                 int c = count;
@@ -398,7 +777,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                 while (e != null) {
                 	me = this.mapEntryFactory.findMapEntryByIndex(e.index);
                 	
-                	if (e.hash == hash && Arrays.equals(key, me.getEntryKey())) {
+                	if (e.hash == hash && this.keyEquals(e, me, key)) {
                 		break;
                 	}
                 	
@@ -409,31 +788,24 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                 if (e != null) {                    
                     oldValue = me.getEntryValue();
                     if (!onlyIfAbsent) {
-                        this.mapEntryFactory.release(me);
-                        me = this.mapEntryFactory.acquire(key.length + value.length);
-                        me.putKeyLength(key.length);
-                        me.putValueLength(value.length);
-                        me.putEntryKey(key);
-                        me.putEntryValue(value);
-                        me.putLastAccessedTime(System.currentTimeMillis());
-                        me.putTimeToLive(ttlInMs);
+                        this.releaseEntry(e, me);
+                        me = this.acquireMapEntry(key, value, ttlInMs, policy);
                         
                         e.index = me.getIndex();
+                        this.scheduleExpiry(e, me);
+                        this.evict(e);
                     }
                 }
                 else {
                     oldValue = null;
                     
-                    me = this.mapEntryFactory.acquire(key.length + value.length);
-                    me.putKeyLength(key.length);
-                    me.putValueLength(value.length);
-                    me.putEntryKey(key);
-                    me.putEntryValue(value);
-                    me.putLastAccessedTime(System.currentTimeMillis());
-                    me.putTimeToLive(ttlInMs);
+                    me = this.acquireMapEntry(key, value, ttlInMs, policy);
                     
-                    tab[index] = new HashEntry(me.getIndex(), hash, first);
+                    e = new HashEntry(me.getIndex(), hash, first);
+                    tab[index] = e;
                     count = c; // write-volatile
+                    this.scheduleExpiry(e, me);
+                    this.evict(e);
                 }
                 return oldValue;
             } finally {
@@ -473,31 +845,41 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
             table = newTable;
         }
         
-        // Purge expired entries
-        void purge() throws IOException {
-        	if (count != 0) {
-	        	lock();
-	        	try {
-		        	for(int index = 0; index < table.length; index++) {
-		        		HashEntry e = table[index];
-		        		while(e != null) {
-		        			MapEntry me = this.mapEntryFactory.findMapEntryByIndex(e.index);
-		                	
-		                	HashEntry next = e.next;
-		                	if (this.isExpired(me)) {
-		                		this.mapEntryFactory.release(me);
-		                		
-		                		this.removeEntry(table, index, e);
-		                		
-		                		count--;
-		                	}
-		        			
-		        			e = next;
-		        		}
-		        	}
-	        	} finally {
-	        		unlock();
-	        	}
+        // Purge expired entries, the lock is released every slice of due entries
+        int purge(int sliceSize) throws IOException {
+        	long now = clock.currentTimeMillis();
+        	long purged = purgedCount;
+        	while(count != 0 && this.purgeSlice(now, sliceSize)) {
+        		Thread.yield(); // let waiting gets and puts in
+        	}
+        	return (int)(purgedCount - purged);
+        }
+        
+        // returns true if there may be more due entries
+        boolean purgeSlice(long now, int sliceSize) throws IOException {
+        	lock();
+        	try {
+        		// only entries whose deadline has passed are visited, the wheel is the resume cursor
+        		HashEntry[] tab = table;
+        		List<HashEntry> due = expiryWheel.advance(now, sliceSize);
+        		for(HashEntry e : due) {
+        			MapEntry me = this.mapEntryFactory.findMapEntryByIndex(e.index);
+        			
+        			if (this.isExpired(e, me)) {
+        				this.notifyRemoval(me, RemovalCause.EXPIRED);
+        				this.releaseEntry(e, me);
+        				
+        				this.removeEntry(tab, e.hash & (tab.length - 1), e);
+        				
+        				count--;
+        				purgedCount++;
+        			} else { // accessed since scheduled
+        				expiryWheel.schedule(e, this.getExpiryTime(e, me));
+        			}
+        		}
+        		return due.size() >= sliceSize;
+        	} finally {
+        		unlock();
         	}
         }
         
@@ -517,7 +899,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                 while (e != null) {
                 	me = this.mapEntryFactory.findMapEntryByIndex(e.index);
                 	
-                	if (e.hash == hash && Arrays.equals(key, me.getEntryKey())) {
+                	if (e.hash == hash && this.keyEquals(e, me, key)) {
                 		break;
                 	}
                 	
@@ -529,11 +911,12 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
                     if (value == null || Arrays.equals(value, me.getEntryValue())) {
                         oldValue = me.getEntryValue();
                         
-	                	if (this.isExpired(me)) {
+	                	if (this.isExpired(e, me)) {
 	                		oldValue = null;
 	                	}
                         
-                        this.mapEntryFactory.release(me);
+	                	this.notifyRemoval(me, oldValue != null ? RemovalCause.REMOVED : RemovalCause.EXPIRED);
+                        this.releaseEntry(e, me);
                         
                         this.removeEntry(tab, index, e);
                         
@@ -546,20 +929,252 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
             }
         }
         
-        boolean isExpired(MapEntry me) {
+        boolean isExpired(HashEntry e, MapEntry me) throws IOException {
         	// has the entry expired?
-        	long ttlInMs = me.getTimeToLive();
-        	boolean expired = ttlInMs > 0 && (System.currentTimeMillis() - me.getLastAccessedTime() > ttlInMs);
-        	return expired;
+        	long expiryTime = this.getExpiryTime(e, me);
+        	return expiryTime > 0 && clock.currentTimeMillis() > expiryTime;
         }
         
-        void clear() {
+        // hot entries are checked against their own access time, the mapped one is stale while hot
+        long getExpiryTime(HashEntry e, MapEntry me) throws IOException {
+        	HotEntry h = e.hot;
+        	if (h != null) {
+        		if (h.ttlInMs <= 0) return 0L;
+        		return h.expiryTime > 0 ? h.expiryTime : h.lastAccessedTime + h.ttlInMs;
+        	}
+        	if (e.accessedTime > 0 && me.getExpiryPolicy() == ExpiryPolicy.AFTER_ACCESS) {
+        		long ttlInMs = me.getTimeToLive();
+        		return ttlInMs > 0 ? e.accessedTime + ttlInMs : 0L;
+        	}
+        	return me.getExpiryTime();
+        }
+        
+        // cached entries are matched against their on-heap or off-heap copy of the key
+        boolean keyEquals(HashEntry e, MapEntry me, byte[] key) throws IOException {
+        	if (e.near != null) {
+        		return Arrays.equals(key, e.near.key);
+        	}
+        	HotEntry h = e.hot;
+        	if (h != null) {
+        		return h.keyEquals(key);
+        	}
+        	return Arrays.equals(key, me.getEntryKey());
+        }
+        
+        // the hot copy holds the current access time while hot, or the hash entry while the mapped one lags behind
+        long getLastAccessedTime(HashEntry e, MapEntry me) throws IOException {
+        	if (e.hot != null) return e.hot.lastAccessedTime;
+        	return e.accessedTime > 0 ? e.accessedTime : me.getLastAccessedTime();
+        }
+        
+        /**
+         * Schedule the purge of an entry just written or restored with a time to live.
+         * Call only while holding lock.
+         */
+        void scheduleExpiry(HashEntry e, MapEntry me) throws IOException {
+        	long expiryTime = me.getExpiryTime();
+        	if (expiryTime > 0) {
+        		expiryWheel.schedule(e, expiryTime);
+        	}
+        }
+        
+        /**
+         * Record a read access, the mapped access time is only written once it is behind by
+         * the write interval, or never for entries with a fixed expiration time, so reads
+         * don't dirty index pages.
+         * Call only while holding lock.
+         */
+        void touch(HashEntry e, MapEntry me, long now) throws IOException {
+        	if (e.hot != null) {
+        		e.hot.lastAccessedTime = now;
+        	} else if (me.getExpiryPolicy() != ExpiryPolicy.AFTER_ACCESS ||
+        			(accessTimeWriteIntervalMs > 0 && now - me.getLastAccessedTime() < accessTimeWriteIntervalMs)) {
+        		e.accessedTime = now;
+        	} else {
+        		me.putLastAccessedTime(now);
+        		e.accessedTime = 0L;
+        	}
+        }
+        
+        /**
+         * Copy the entry to the hot tier, demoting sampled least recently accessed hot entries to make room.
+         * Call only while holding lock.
+         */
+        void promote(HashEntry e, byte[] key, byte[] value, long ttlInMs, long expiryTime, long now) throws IOException {
+        	int size = key.length + value.length;
+        	if (size > maxHotBytes) return;
+        	while(hotBytes + size > maxHotBytes && !hotEntries.isEmpty()) {
+        		this.demote(this.sampleHotVictim());
+        	}
+        	ByteBuffer data;
+        	try {
+        		data = ByteBuffer.allocateDirect(size);
+        	} catch (OutOfMemoryError oom) {
+        		logger.warn("Fail to promote entry to hot tier, out of direct memory");
+        		return;
+        	}
+        	data.put(key);
+        	data.put(value);
+        	HotEntry h = new HotEntry(data, key.length, ttlInMs, expiryTime, now);
+        	h.slot = hotEntries.size();
+        	hotEntries.add(e);
+        	hotBytes += size;
+        	e.hot = h;
+        }
+        
+        HashEntry sampleHotVictim() {
+        	HashEntry victim = null;
+        	for(int i = 0; i < HOT_TIER_EVICTION_SAMPLES; i++) {
+        		HashEntry candidate = hotEntries.get(random.nextInt(hotEntries.size()));
+        		if (victim == null || candidate.hot.lastAccessedTime < victim.hot.lastAccessedTime) {
+        			victim = candidate;
+        		}
+        	}
+        	return victim;
+        }
+        
+        /**
+         * Move the entry back to the mapped tier only, its access time is written back.
+         * Call only while holding lock.
+         */
+        void demote(HashEntry e) throws IOException {
+        	MapEntry me = this.mapEntryFactory.findMapEntryByIndex(e.index);
+        	me.putLastAccessedTime(e.hot.lastAccessedTime);
+        	e.accessedTime = 0L;
+        	this.discardHotCopy(e);
+        }
+        
+        /**
+         * Release the map entry of a hash entry being rewritten or removed.
+         * Call only while holding lock.
+         */
+        void releaseEntry(HashEntry e, MapEntry me) throws IOException {
+        	this.discardCopies(e);
+        	e.accessedTime = 0L; // the hash entry may be reused for the rewritten entry
+        	expiryWheel.unschedule(e);
+        	usedBytes -= me.getKeyLength() + me.getValueLength();
+        	this.mapEntryFactory.release(me);
+        }
+        
+        /**
+         * Queue a removal notification of an entry about to be released.
+         * Call only while holding lock.
+         */
+        void notifyRemoval(MapEntry me, RemovalCause cause) throws IOException {
+        	if (removalDispatcher == null) return;
+        	byte[] value = removalDispatcher.valueDelivered ? me.getEntryValue() : null;
+        	removalDispatcher.offer(me.getEntryKey(), value, cause);
+        }
+        
+        /**
+         * Evict sampled least recently accessed entries until the segment is within its size bound,
+         * the entry just written is kept.
+         * Call only while holding lock.
+         */
+        void evict(HashEntry keep) throws IOException {
+        	if (maxEntries <= 0 && maxBytes <= 0) return;
+        	while((maxEntries > 0 && count > maxEntries) || (maxBytes > 0 && usedBytes > maxBytes)) {
+        		HashEntry victim = this.sampleEvictionVictim(keep);
+        		if (victim == null) return;
+        		MapEntry me = this.mapEntryFactory.findMapEntryByIndex(victim.index);
+        		this.notifyRemoval(me, RemovalCause.EVICTED);
+        		this.releaseEntry(victim, me);
+        		HashEntry[] tab = table;
+        		this.removeEntry(tab, victim.hash & (tab.length - 1), victim);
+        		count = count - 1; // write-volatile
+        		evictionCount++;
+        	}
+        }
+        
+        HashEntry sampleEvictionVictim(HashEntry keep) throws IOException {
+        	HashEntry[] tab = table;
+        	HashEntry victim = null;
+        	long victimAccessedTime = Long.MAX_VALUE;
+        	int samples = 0;
+        	for(int i = 0; i < EVICTION_PROBES && samples < EVICTION_SAMPLES; i++) {
+        		HashEntry candidate = this.randomNode(tab[random.nextInt(tab.length)], keep);
+        		if (candidate == null) continue;
+        		samples++;
+        		long accessedTime = this.getLastAccessedTime(candidate, this.mapEntryFactory.findMapEntryByIndex(candidate.index));
+        		if (accessedTime < victimAccessedTime) {
+        			victim = candidate;
+        			victimAccessedTime = accessedTime;
+        		}
+        	}
+        	if (victim == null) { // every probe hit an empty bucket, the table is sparse, take any entry
+        		int start = random.nextInt(tab.length);
+        		for(int j = 0; j < tab.length && victim == null; j++) {
+        			victim = this.randomNode(tab[(start + j) & (tab.length - 1)], keep);
+        		}
+        	}
+        	return victim;
+        }
+        
+        // a random node of the chain other than the kept one, null if there is none
+        HashEntry randomNode(HashEntry first, HashEntry keep) {
+        	int length = 0;
+        	for(HashEntry e = first; e != null; e = e.next) {
+        		if (e != keep) length++;
+        	}
+        	if (length == 0) return null;
+        	int k = random.nextInt(length);
+        	for(HashEntry e = first; e != null; e = e.next) {
+        		if (e != keep && k-- == 0) return e;
+        	}
+        	return null;
+        }
+        
+        /**
+         * Drop the hot and near cache copies of the entry if any, for entries being rewritten or released.
+         * Call only while holding lock.
+         */
+        void discardCopies(HashEntry e) {
+        	this.discardHotCopy(e);
+        	if (nearCache != null) {
+        		nearCache.invalidate(e);
+        	}
+        }
+        
+        // call only while holding lock
+        void discardHotCopy(HashEntry e) {
+        	HotEntry h = e.hot;
+        	if (h == null) return;
+        	// swap remove from the hot list
+        	HashEntry last = hotEntries.remove(hotEntries.size() - 1);
+        	if (last != e) {
+        		hotEntries.set(h.slot, last);
+        		last.hot.slot = h.slot;
+        	}
+        	hotBytes -= h.data.capacity();
+        	e.hot = null;
+        	// free the direct memory now, GC may come too late to keep promote and demote churn within
+        	// the direct memory limit. Hot copies are only read under the segment lock.
+        	BufferCleaner.clean(h.data);
+        }
+        
+        void clear() throws IOException {
             if (count != 0) {
                 lock();
                 try {
+                	while(!hotEntries.isEmpty()) {
+                		this.demote(hotEntries.get(hotEntries.size() - 1));
+                	}
+                	if (nearCache != null) {
+                		nearCache.clear();
+                	}
+                	expiryWheel.clear();
                     HashEntry[] tab = table;
-                    for (int i = 0; i < tab.length ; i++)
+                    for (int i = 0; i < tab.length ; i++) {
+                    	// write back the access times kept on heap, a reopened map would expire the entries early
+                    	for(HashEntry e = tab[i]; e != null; e = e.next) {
+                    		if (e.accessedTime > 0) {
+                    			this.mapEntryFactory.findMapEntryByIndex(e.index).putLastAccessedTime(e.accessedTime);
+                    			e.accessedTime = 0L;
+                    		}
+                    	}
                         tab[i] = null;
+                    }
+                    usedBytes = 0;
                     count = 0; // write-volatile
                 } finally {
                     unlock();
@@ -587,13 +1202,33 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
      */
 	public BigConcurrentHashMapImpl(String mapDir, String mapName, BigConfig config) throws IOException {
         if (!(config.getLoadFactor() > 0) || config.getInitialCapacity() < 0 || 
-        		config.getConcurrencyLevel() <= 0 || config.getPurgeIntervalInMs() <= 10)
+        		config.getConcurrencyLevel() <= 0 || config.getPurgeIntervalInMs() <= 10 || config.getPurgeSliceSize() < 1 ||
+        		config.getMinPurgeIntervalInMs() <= 10 || config.getPurgeThreads() < 1 || config.getExpiryBucketMs() < 0 ||
+        		config.getAccessTimeWriteIntervalMs() < 0 || config.getExpiryPolicy() == null ||
+        		config.getRemovalBatchSize() < 1)
             throw new IllegalArgumentException();
 
         this.mapDir = mapDir;
         this.mapName = mapName;
         this.config = config;
-        this.mapEntryFactory = new MapEntryFactoryImpl(mapDir, mapName);
+        if (config.getClock() != null) {
+        	this.ticker = null;
+        	this.clock = config.getClock();
+        } else {
+        	this.ticker = TickerClock.acquireShared();
+        	this.clock = this.ticker;
+        }
+        try {
+        	this.mapEntryFactory = new MapEntryFactoryImpl(mapDir, mapName, config, this.clock);
+        } catch (IOException e) {
+        	TickerClock.releaseShared(this.ticker); // the map is never closed, don't keep the ticker running
+        	throw e;
+        } catch (RuntimeException e) {
+        	TickerClock.releaseShared(this.ticker);
+        	throw e;
+        }
+        this.removalDispatcher = config.getRemovalListener() != null ? new RemovalDispatcher(config.getRemovalListener(), 
+        		config.isRemovalValueDelivered(), config.getRemovalBatchSize(), mapName + "_removalDispatcher") : null;
 
         // Find power-of-two sizes best matching arguments
         int sshift = 0;
@@ -614,7 +1249,10 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
             cap <<= 1;
 
         for (int i = 0; i < this.segments.length; ++i)
-            this.segments[i] = new Segment<byte[]>(cap, config.getLoadFactor(), this.mapEntryFactory);
+            this.segments[i] = new Segment<byte[]>(cap, config.getLoadFactor(), this.mapEntryFactory, this.clock, 
+            		config.getMaxHotTierBytes() / ssize, config.getHotTierPromotionWindowMs(), config.getMaxNearCacheBytes() / ssize,
+            		(config.getMaxEntries() + ssize - 1) / ssize, (config.getMaxBytes() + ssize - 1) / ssize, config.getAccessTimeWriteIntervalMs(),
+            		this.removalDispatcher);
         
         // reload on disk map entries into memory
         if (!((MapEntryFactoryImpl)this.mapEntryFactory).isEmpty()) {
@@ -630,14 +1268,68 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	
 	private void stopPurgeTimer() {
 		if (this.purgeTimer != null) {
+			this.purgeStopped = true;
 			this.purgeTimer.cancel();
 			this.purgeTimer = null;
+			
+			// wait for an in flight purge, pages are unmapped on close
+			while(this.purgeRunning.get()) {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		if (this.purgeExecutor != null) {
+			this.purgeExecutor.shutdown();
+			try {
+				this.purgeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.purgeExecutor = null;
 		}
 	}
 	
 	private void startPurgeTimer() {
+		int purgeThreads = Math.min(config.getPurgeThreads(), segments.length);
+		if (purgeThreads > 1) {
+			final String threadNamePrefix = mapName + "_purgeWorker-";
+			final AtomicInteger threadCount = new AtomicInteger();
+			purgeExecutor = Executors.newFixedThreadPool(purgeThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, threadNamePrefix + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
         purgeTimer = new Timer(mapName + "_purgeTimer");
-        purgeTimer.schedule(new PurgeTimerTask(), config.getPurgeIntervalInMs(), config.getPurgeIntervalInMs());
+        purgeDelayInMs = config.getPurgeIntervalInMs();
+        purgeTimer.schedule(new PurgeTimerTask(purgeTimer), purgeDelayInMs);
+	}
+	
+	/**
+	 * Redis style adaptive expiration, purge twice as often while a large fraction of the
+	 * entries with time to live expires per run, down to the min purge interval, and back off
+	 * twice as long when nothing expires, up to the purge interval.
+	 * 
+	 * @param expired number of entries purged by the last run
+	 * @param scheduled number of entries with time to live before the last run
+	 */
+	void adaptPurgeDelay(int expired, long scheduled) {
+		long maxDelay = config.getPurgeIntervalInMs();
+		long minDelay = Math.min(config.getMinPurgeIntervalInMs(), maxDelay);
+		long delay = purgeDelayInMs;
+		if (scheduled > 0 && expired > scheduled * ACTIVE_EXPIRE_THRESHOLD) {
+			delay = Math.max(minDelay, delay / 2);
+		} else if (expired == 0) {
+			delay = Math.min(maxDelay, delay * 2);
+		}
+		purgeDelayInMs = delay;
 	}
 	
 	/**
@@ -653,7 +1345,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 			MapEntry me = factory.findMapEntryByIndex(index);
 			if (me.isAllocated()) {
 				factory.restore(me);
-				if (me.isInUse()) {
+				if (me.isInUse() && !me.isChunk()) {
 					this.restoreInUseMapEntry(me);
 				}
 				
@@ -664,6 +1356,173 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 		}
 	}
 	
+	/* ---------------- Iteration -------------- */
+	
+	/**
+	 * Scans the index items in order, batch by batch, the live entries of a batch are read in data page
+	 * and offset order so a full scan reads index and data pages sequentially. Every candidate is checked
+	 * against its segment, entries written after the scan passed them may be missed, entries removed
+	 * later may still be returned, and an entry rewritten to an index item ahead of the scan is met again.
+	 */
+	abstract class HashIterator {
+		final MapEntryFactoryImpl factory = (MapEntryFactoryImpl)mapEntryFactory;
+		final long endIndex = factory.getArrayHeadIndex();
+		long nextIndex = 0;
+		final LinkedList<byte[]> pendingKeys = new LinkedList<byte[]>();
+		byte[] nextKey;
+		byte[] lastReturned;
+		
+		HashIterator() {
+			this.advance();
+		}
+		
+		public boolean hasNext() {
+			return nextKey != null;
+		}
+		
+		byte[] nextKey() {
+			if (nextKey == null) throw new NoSuchElementException();
+			lastReturned = nextKey;
+			this.advance();
+			return lastReturned;
+		}
+		
+		public void remove() {
+			if (lastReturned == null) throw new IllegalStateException();
+			BigConcurrentHashMapImpl.this.remove(lastReturned);
+			lastReturned = null;
+		}
+		
+		final void advance() {
+			try {
+				while(pendingKeys.isEmpty() && nextIndex < endIndex) {
+					this.scanBatch();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Fail to iterate the map", e);
+			}
+			nextKey = pendingKeys.poll();
+		}
+		
+		private void scanBatch() throws IOException {
+			long batchEnd = Math.min(endIndex, nextIndex + ITERATION_BATCH_SIZE);
+			List<ScanItem> candidates = new ArrayList<ScanItem>();
+			for(; nextIndex < batchEnd; nextIndex++) {
+				MapEntry me = factory.findMapEntryByIndex(nextIndex);
+				if (me.isAllocated() && me.isInUse() && !me.isChunk()) {
+					candidates.add(new ScanItem(me, me.getDataPageIndex(), me.getDataSlotOffset()));
+				}
+			}
+			Collections.sort(candidates);
+			for(ScanItem item : candidates) {
+				byte[] key;
+				try {
+					key = item.me.getEntryKey();
+				} catch (PageDeletedException e) { // expired with its bucket page since the status was read
+					continue;
+				}
+				if (key == null || key.length == 0) continue; // slot being rewritten
+				int hash = Arrays.hashCode(key);
+				if (segmentFor(hash).isLive(key, hash, item.me.getIndex())) {
+					pendingKeys.add(key);
+				}
+			}
+		}
+	}
+	
+	// in use index item of a scan batch, ordered by its slot in the data pages
+	static final class ScanItem implements Comparable<ScanItem> {
+		final MapEntry me;
+		final long dataPageIndex;
+		final int slotOffset;
+		
+		ScanItem(MapEntry me, long dataPageIndex, int slotOffset) {
+			this.me = me;
+			this.dataPageIndex = dataPageIndex;
+			this.slotOffset = slotOffset;
+		}
+		
+		@Override
+		public int compareTo(ScanItem o) {
+			if (dataPageIndex != o.dataPageIndex) return dataPageIndex < o.dataPageIndex ? -1 : 1;
+			return slotOffset < o.slotOffset ? -1 : (slotOffset == o.slotOffset ? 0 : 1);
+		}
+	}
+	
+	final class KeyIterator extends HashIterator implements Iterator<byte[]> {
+		@Override
+		public byte[] next() {
+			return this.nextKey();
+		}
+	}
+	
+	final class EntryIterator extends HashIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+		@Override
+		public Map.Entry<byte[], byte[]> next() {
+			return new LazyEntry(this.nextKey());
+		}
+	}
+	
+	/**
+	 * Entry whose value is read on first access, null if the key has been removed or expired since
+	 */
+	final class LazyEntry implements Map.Entry<byte[], byte[]> {
+		final byte[] key;
+		byte[] value;
+		
+		LazyEntry(byte[] key) {
+			this.key = key;
+		}
+		
+		@Override
+		public byte[] getKey() {
+			return key;
+		}
+		
+		@Override
+		public byte[] getValue() {
+			if (value == null) {
+				int hash = Arrays.hashCode(key);
+				try {
+					value = segmentFor(hash).peek(key, hash);
+				} catch (IOException e) {
+					throw new RuntimeException("Fail to read value of the map", e);
+				}
+			}
+			return value;
+		}
+		
+		@Override
+		public byte[] setValue(byte[] value) {
+			byte[] oldValue = BigConcurrentHashMapImpl.this.put(key, value);
+			this.value = value;
+			return oldValue;
+		}
+	}
+	
+	@Override
+	public Iterator<byte[]> keyIterator() {
+		return new KeyIterator();
+	}
+	
+	@Override
+	public Iterator<Map.Entry<byte[], byte[]>> entryIterator() {
+		return new EntryIterator();
+	}
+	
+	@Override
+	public void forEach(IEntryConsumer consumer) {
+		if (consumer == null) throw new NullPointerException("consumer is null");
+		Iterator<Map.Entry<byte[], byte[]>> it = this.entryIterator();
+		while(it.hasNext()) {
+			Map.Entry<byte[], byte[]> entry = it.next();
+			byte[] value = entry.getValue();
+			if (value != null) {
+				consumer.accept(entry.getKey(), value);
+			}
+		}
+	}
+	
     /**
 	* Creates a new, empty map with default initial capacity (16), load factor (0.75), 
 	* concurrencyLevel (16) and purgeIntervalInMs(20 minutes).
@@ -677,30 +1536,101 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	}
 	
 	class PurgeTimerTask extends TimerTask {
-		AtomicBoolean running = new AtomicBoolean(false);
+		final Timer timer;
+		
+		PurgeTimerTask(Timer timer) {
+			this.timer = timer;
+		}
 		
 		@Override
 		public void run() {
 			try {
-				if (running.compareAndSet(false, true)) {
+				if (purgeRunning.compareAndSet(false, true)) {
 					try {
-						purge();
+						if (purgeStopped) return;
+						long scheduled = getScheduledExpiryCount();
+						int expired = purge();
 						purgeCount.incrementAndGet();
+						adaptPurgeDelay(expired, scheduled);
 					} finally {
-						running.set(false);
+						purgeRunning.set(false);
 					}
 				}
 			} catch (Throwable t) {
 				logger.error("Fail to purge expired map entries", t);
 			}
+			
+			try {
+				if (!purgeStopped) {
+					timer.schedule(new PurgeTimerTask(timer), purgeDelayInMs);
+				}
+			} catch (IllegalStateException e) {
+				// timer cancelled by close
+			}
 		}
 		
 	}
 	
-	void purge() throws IOException {
+	/**
+	 * Purge expired entries of all segments
+	 * 
+	 * @return number of entries purged
+	 * @throws IOException
+	 */
+	int purge() throws IOException {
+		long start = clock.currentTimeMillis();
+		ExecutorService executor = this.purgeExecutor;
+		if (executor == null) {
+			int expired = 0;
+			for(Segment<byte[]> segment : segments) {
+				expired += segment.purge(config.getPurgeSliceSize());
+			}
+			this.deleteExpiredBucketPages(start);
+			return expired;
+		}
+		
+		// one task per segment, the pool size limits the parallelism
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(segments.length);
+		for(final Segment<byte[]> segment : segments) {
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws IOException {
+					return segment.purge(config.getPurgeSliceSize());
+				}
+			});
+		}
+		int expired = 0;
+		try {
+			for(Future<Integer> future : executor.invokeAll(tasks)) {
+				expired += future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return expired; // segments may be left unpurged, keep the bucket pages
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new RuntimeException("Fail to purge segment", e.getCause());
+		}
+		this.deleteExpiredBucketPages(start);
+		return expired;
+	}
+	
+	/**
+	 * Delete the expiry bucket pages whose entries have all been released by a full purge which
+	 * started at the time, the wheel has taken out every entry due a tick before.
+	 */
+	void deleteExpiredBucketPages(long purgeStartTime) throws IOException {
+		// pages restored from a map written with expiry buckets go away even if they are disabled now
+		((MapEntryFactoryImpl)this.mapEntryFactory).deleteExpiredBucketPages(purgeStartTime - EXPIRY_WHEEL_TICK_MS);
+	}
+	
+	// approximate, read without the segment locks
+	long getScheduledExpiryCount() {
+		long total = 0;
 		for(Segment<byte[]> segment : segments) {
-			segment.purge();
+			total += segment.expiryWheel.size();
 		}
+		return total;
 	}
 	
     /**
@@ -755,6 +1685,27 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 		}
 	}
 	
+    /**
+     * Returns a stream over the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     * The value is read from the backing pages on demand, so even a large
+     * value is never fully loaded on heap.
+     * 
+     * @throws RuntimeException throws if file IO operation fail
+     * @throws NullPointerException if the specified key is null
+     */
+	@Override
+	public InputStream getValueStream(byte[] key) {
+		if (key == null || key.length == 0) throw new NullPointerException("key is null or empty");
+		final int hash = Arrays.hashCode(key);
+		
+		try {
+			return segmentFor(hash).getValueStream(key, hash);
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to get value stream in the map", e);
+		}
+	}
+	
     /**
      * Tests if the specified object is a key in this table.
      *
@@ -775,6 +1726,34 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 		}
 	}
 	
+	@Override
+	public boolean touch(byte[] key) {
+		if (key == null || key.length == 0) throw new NullPointerException("key is null or empty");
+		final int hash = Arrays.hashCode(key);
+		try {
+			return segmentFor(hash).touch(key, hash);
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to touch key in the map", e);
+		}
+	}
+	
+	@Override
+	public boolean expire(byte[] key, long ttlInMs) {
+		if (key == null || key.length == 0) throw new NullPointerException("key is null or empty");
+		if (ttlInMs < 0) throw new IllegalArgumentException("Invalid time to live value " + ttlInMs + ", it must be >= 0.");
+		final int hash = Arrays.hashCode(key);
+		try {
+			return segmentFor(hash).expire(key, hash, ttlInMs);
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to change time to live of key in the map", e);
+		}
+	}
+	
+	@Override
+	public boolean persist(byte[] key) {
+		return this.expire(key, 0L);
+	}
+	
     /**
      * Maps the specified key to the specified value in this table for the specified duration.
      * If the map previously contained a mapping for the key, the old value is
@@ -797,13 +1776,33 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
      */
 	@Override
 	public byte[] put(byte[] key, byte[] value, long ttlInMs) {
+		return this.put(key, value, ttlInMs, config.getExpiryPolicy());
+	}
+	
+    /**
+     * Maps the specified key to the specified value in this table for the specified duration,
+     * counted by the specified expiry policy.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @param ttlInMs the time to live in ms, or the absolute expiration time in ms for {@link ExpiryPolicy#DEADLINE},
+     * 0 means "forever"
+     * @param policy how the time to live is counted
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     * @throws RuntimeException throws if file IO operation fail
+     * @throws NullPointerException if the specified key, value or policy is null
+     */
+	@Override
+	public byte[] put(byte[] key, byte[] value, long ttlInMs, ExpiryPolicy policy) {
 		if (key == null || key.length == 0) throw new NullPointerException("key is null or empty");
 		if (value == null || value.length == 0) throw new NullPointerException("value is null or empty");
+		if (policy == null) throw new NullPointerException("expiry policy is null");
 		if (ttlInMs < 0) throw new IllegalArgumentException("Invalid time to live value " + ttlInMs + ", it must be >= 0.");
 		final int hash = Arrays.hashCode(key);
 		
 		try {
-			return segmentFor(hash).put(key, hash, value, false, ttlInMs);
+			return segmentFor(hash).put(key, hash, value, false, ttlInMs, policy);
 		} catch (IOException e) {
 			throw new RuntimeException("Fail to put key/value in the map", e);
 		}
@@ -813,7 +1812,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 		try {
 			byte[] key = me.getEntryKey();
 			if (key == null || key.length == 0) throw new NullPointerException("key is null or empty");
-			if (me.getEntryValue() == null || me.getEntryValue().length == 0) throw new NullPointerException("value is null or empty");
+			if (me.getValueLength() <= 0) throw new NullPointerException("value is null or empty");
 			if (me.getTimeToLive() < 0) throw new IllegalArgumentException("Invalid time to live value " + me.getTimeToLive() + ", it must be >= 0.");
 		
 			final int hash = Arrays.hashCode(key);
@@ -871,7 +1870,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 		final int hash = Arrays.hashCode(key);
 		
 		try {
-			return segmentFor(hash).put(key, hash, value, true, ttlInMs);
+			return segmentFor(hash).put(key, hash, value, true, ttlInMs, config.getExpiryPolicy());
 		} catch (IOException e) {
 			throw new RuntimeException("Fail to putIfAbsent key/value in the map", e);
 		}
@@ -956,7 +1955,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 		final int hash = Arrays.hashCode(key);
 		
 		try {
-			return segmentFor(hash).replace(key, hash, oldValue, newValue, ttlInMs);
+			return segmentFor(hash).replace(key, hash, oldValue, newValue, ttlInMs, config.getExpiryPolicy());
 		} catch (IOException e) {
 			throw new RuntimeException("Fail to replace key/value in the map", e);
 		}
@@ -978,7 +1977,7 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 		final int hash = Arrays.hashCode(key);
 		
 		try {
-			return segmentFor(hash).replace(key, hash, value, ttlInMs);
+			return segmentFor(hash).replace(key, hash, value, ttlInMs, config.getExpiryPolicy());
 		} catch (IOException e) {
 			throw new RuntimeException("Fail to replace key/value in the map", e);
 		}
@@ -989,14 +1988,63 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
      */
 	@Override
 	public void clear() {
-        for (Segment<byte[]> segment : segments) segment.clear();
+		try {
+			for (Segment<byte[]> segment : segments) segment.clear();
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to clear the map", e);
+		}
     }
+	
+	/**
+	 * Number of entries evicted to keep the map within its size bound
+	 * 
+	 * @return evicted entry count
+	 */
+	public long getEvictedEntryCount() {
+		long total = 0;
+		for(Segment<byte[]> segment : segments) {
+			total += segment.evictionCount;
+		}
+		return total;
+	}
+	
+	/**
+	 * Number of reads served from the hot tier without touching the mapped files
+	 * 
+	 * @return hot tier hit count
+	 */
+	public long getHotTierHitCount() {
+		long total = 0;
+		for(Segment<byte[]> segment : segments) {
+			total += segment.hotHitCount;
+		}
+		return total;
+	}
+	
+	/**
+	 * Total bytes of keys and values currently held in the hot tier
+	 * 
+	 * @return hot tier size in bytes
+	 */
+	public long getHotTierUsedBytes() {
+		long total = 0;
+		for(Segment<byte[]> segment : segments) {
+			total += segment.hotBytes;
+		}
+		return total;
+	}
 
 	@Override
 	public void close() throws IOException {
 		this.clear();
 		this.stopPurgeTimer();
+		if (this.removalDispatcher != null) {
+			this.removalDispatcher.close();
+		}
 		this.mapEntryFactory.close();
+		if (this.ticker != null && this.tickerReleased.compareAndSet(false, true)) { // release once on repeated close
+			TickerClock.releaseShared(this.ticker);
+		}
 	}
 
 	@Override
@@ -1009,4 +2057,36 @@ public class BigConcurrentHashMapImpl implements IBigConcurrentHashMap {
 	public IMMFStats getMemoryMappedFileStats() {
 		return this.mapEntryFactory;
 	}
+
+	@Override
+	public INearCacheStats getNearCacheStats() {
+		return this;
+	}
+
+	@Override
+	public long getNearCacheHitCount() {
+		long total = 0;
+		for(Segment<byte[]> segment : segments) {
+			if (segment.nearCache != null) total += segment.nearCache.hitCount;
+		}
+		return total;
+	}
+
+	@Override
+	public long getNearCacheMissCount() {
+		long total = 0;
+		for(Segment<byte[]> segment : segments) {
+			if (segment.nearCache != null) total += segment.nearCache.missCount;
+		}
+		return total;
+	}
+
+	@Override
+	public long getNearCacheUsedBytes() {
+		long total = 0;
+		for(Segment<byte[]> segment : segments) {
+			if (segment.nearCache != null) total += segment.nearCache.getUsedBytes();
+		}
+		return total;
+	}
 }
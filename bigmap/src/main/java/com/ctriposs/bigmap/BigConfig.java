@@ -1,5 +1,7 @@
 package com.ctriposs.bigmap;
 
+import com.ctriposs.bigmap.utils.Clock;
+
 /**
  * Configuration for BigConcurrentHashMap
  * 
@@ -12,7 +14,28 @@ public class BigConfig {
 	private int concurrencyLevel = BigConcurrentHashMapImpl.DEFAULT_CONCURRENCY_LEVEL;
 	private float loadFactor = BigConcurrentHashMapImpl.DEFAULT_LOAD_FACTOR;
 	private long purgeIntervalInMs = BigConcurrentHashMapImpl.DEFAULT_PURGE_INTERVAL;
+	private int purgeSliceSize = BigConcurrentHashMapImpl.DEFAULT_PURGE_SLICE_SIZE;
+	private long minPurgeIntervalInMs = BigConcurrentHashMapImpl.DEFAULT_MIN_PURGE_INTERVAL;
+	private int purgeThreads = 1;
 	private boolean reloadOnStartup = BigConcurrentHashMapImpl.DEFAULT_RELOAD_ON_STARTUP;
+	private int indexItemsPerPageBits = MapEntryFactoryImpl.DEFAULT_INDEX_ITEMS_PER_PAGE_BITS;
+	private int dataPageSize = MapEntryFactoryImpl.DEFAULT_DATA_PAGE_SIZE;
+	private int maxMappedIndexPages = 0;
+	private int maxMappedDataPages = 0;
+	private boolean preTouchPages = false;
+	private StorageMode storageMode = StorageMode.PERSISTENT;
+	private long maxHotTierBytes = 0;
+	private long maxNearCacheBytes = 0;
+	private long maxEntries = 0;
+	private long maxBytes = 0;
+	private long expiryBucketMs = 0;
+	private long accessTimeWriteIntervalMs = 0;
+	private Clock clock = null;
+	private ExpiryPolicy expiryPolicy = ExpiryPolicy.AFTER_ACCESS;
+	private IRemovalListener removalListener = null;
+	private boolean removalValueDelivered = false;
+	private int removalBatchSize = BigConcurrentHashMapImpl.DEFAULT_REMOVAL_BATCH_SIZE;
+	private long hotTierPromotionWindowMs = BigConcurrentHashMapImpl.DEFAULT_HOT_TIER_PROMOTION_WINDOW;
 	
 	public boolean isReloadOnStartup() {
 		return reloadOnStartup;
@@ -58,4 +81,341 @@ public class BigConfig {
 		this.purgeIntervalInMs = purgeIntervalInMs;
 		return this;
 	}
+	
+	public long getMinPurgeIntervalInMs() {
+		return minPurgeIntervalInMs;
+	}
+	
+	/**
+	 * Shortest interval purge adapts down to while a large fraction of the entries with time to live
+	 * expires per run, purge backs off up to the purge interval when nothing expires.
+	 * 
+	 * @param minPurgeIntervalInMs min purge interval in ms, 1 second by default
+	 * @return the config
+	 */
+	public BigConfig setMinPurgeIntervalInMs(long minPurgeIntervalInMs) {
+		this.minPurgeIntervalInMs = minPurgeIntervalInMs;
+		return this;
+	}
+	
+	public int getPurgeThreads() {
+		return purgeThreads;
+	}
+	
+	/**
+	 * Number of worker threads purging segments in parallel, 1 purges the segments one after
+	 * another on the purge timer thread. Capped by the number of segments.
+	 * 
+	 * @param purgeThreads number of purge threads, at least 1, 1 by default
+	 * @return the config
+	 */
+	public BigConfig setPurgeThreads(int purgeThreads) {
+		this.purgeThreads = purgeThreads;
+		return this;
+	}
+	
+	public int getPurgeSliceSize() {
+		return purgeSliceSize;
+	}
+	
+	/**
+	 * Max number of due entries purged per segment lock acquisition, purge releases the segment
+	 * between slices so gets and puts are never held up for a full pass.
+	 * 
+	 * @param purgeSliceSize entries per slice, at least 1, 1000 by default
+	 * @return the config
+	 */
+	public BigConfig setPurgeSliceSize(int purgeSliceSize) {
+		this.purgeSliceSize = purgeSliceSize;
+		return this;
+	}
+	
+	public int getIndexItemsPerPageBits() {
+		return indexItemsPerPageBits;
+	}
+	
+	/**
+	 * Number of index items per index page in power of 2, an index item takes 64 bytes.
+	 * Only applies to a new map, an existing map keeps the geometry it was created with.
+	 * 
+	 * @param indexItemsPerPageBits bits between 6(4K index page) and 24(1G index page), 20 by default
+	 * @return the config
+	 */
+	public BigConfig setIndexItemsPerPageBits(int indexItemsPerPageBits) {
+		this.indexItemsPerPageBits = indexItemsPerPageBits;
+		return this;
+	}
+	
+	public int getDataPageSize() {
+		return dataPageSize;
+	}
+	
+	/**
+	 * Size in bytes of a data page, data slots are limited to the smaller of 16M and this size.
+	 * Only applies to a new map, an existing map keeps the geometry it was created with.
+	 * 
+	 * @param dataPageSize data page size, at least 4K, 128M by default
+	 * @return the config
+	 */
+	public BigConfig setDataPageSize(int dataPageSize) {
+		this.dataPageSize = dataPageSize;
+		return this;
+	}
+	
+	public int getMaxMappedIndexPages() {
+		return maxMappedIndexPages;
+	}
+	
+	/**
+	 * Max number of index pages kept mapped, cold pages are flushed and unmapped beyond this number.
+	 * 
+	 * @param maxMappedIndexPages max number of mapped index pages, 0(unbounded) by default
+	 * @return the config
+	 */
+	public BigConfig setMaxMappedIndexPages(int maxMappedIndexPages) {
+		this.maxMappedIndexPages = maxMappedIndexPages;
+		return this;
+	}
+	
+	public int getMaxMappedDataPages() {
+		return maxMappedDataPages;
+	}
+	
+	/**
+	 * Max number of data pages kept mapped, cold pages are flushed and unmapped beyond this number.
+	 * 
+	 * @param maxMappedDataPages max number of mapped data pages, 0(unbounded) by default
+	 * @return the config
+	 */
+	public BigConfig setMaxMappedDataPages(int maxMappedDataPages) {
+		this.maxMappedDataPages = maxMappedDataPages;
+		return this;
+	}
+	
+	public boolean isPreTouchPages() {
+		return preTouchPages;
+	}
+	
+	/**
+	 * Whether pages mapped ahead of the head in background are also faulted in by reading
+	 * them, so the first accesses to a new page don't take major page faults.
+	 * 
+	 * @param preTouchPages true to pre-touch, false by default
+	 * @return the config
+	 */
+	public BigConfig setPreTouchPages(boolean preTouchPages) {
+		this.preTouchPages = preTouchPages;
+		return this;
+	}
+	
+	public StorageMode getStorageMode() {
+		return storageMode;
+	}
+	
+	/**
+	 * Where the pages of the map live, {@link StorageMode#OFFHEAP} keeps everything in direct memory
+	 * without touching the disk, for cache only usage. Max mapped pages and reload on startup
+	 * don't apply to an off-heap map. {@link StorageMode#FILE_CHANNEL} reads and writes data pages
+	 * with explicit file I/O, max mapped data pages and pre-touch don't apply to it.
+	 * 
+	 * @param storageMode storage mode, {@link StorageMode#PERSISTENT} by default
+	 * @return the config
+	 */
+	public BigConfig setStorageMode(StorageMode storageMode) {
+		this.storageMode = storageMode;
+		return this;
+	}
+	
+	public long getMaxHotTierBytes() {
+		return maxHotTierBytes;
+	}
+	
+	/**
+	 * Max bytes of keys and values kept in the off-heap hot tier, frequently read entries are copied
+	 * there so reads don't touch the mapped files, the least recently accessed of a few sampled hot entries
+	 * is demoted when the tier is full. The budget is split evenly among segments.
+	 * 
+	 * @param maxHotTierBytes hot tier size in bytes, 0(no hot tier) by default
+	 * @return the config
+	 */
+	public BigConfig setMaxHotTierBytes(long maxHotTierBytes) {
+		this.maxHotTierBytes = maxHotTierBytes;
+		return this;
+	}
+	
+	public long getHotTierPromotionWindowMs() {
+		return hotTierPromotionWindowMs;
+	}
+	
+	/**
+	 * An entry read again within this window of its last recorded access is promoted to the hot tier.
+	 * 
+	 * @param hotTierPromotionWindowMs promotion window in ms, 1 minute by default
+	 * @return the config
+	 */
+	public BigConfig setHotTierPromotionWindowMs(long hotTierPromotionWindowMs) {
+		this.hotTierPromotionWindowMs = hotTierPromotionWindowMs;
+		return this;
+	}
+	
+	public long getMaxNearCacheBytes() {
+		return maxNearCacheBytes;
+	}
+	
+	/**
+	 * Max bytes of keys and values kept on heap in the near cache in front of get, hot values are
+	 * returned without touching the data pages. Admission follows W-TinyLFU, entries are dropped on
+	 * write, removal and expiry. The budget is split evenly among segments.
+	 * 
+	 * @param maxNearCacheBytes near cache size in bytes, 0(no near cache) by default
+	 * @return the config
+	 */
+	public BigConfig setMaxNearCacheBytes(long maxNearCacheBytes) {
+		this.maxNearCacheBytes = maxNearCacheBytes;
+		return this;
+	}
+	
+	public long getMaxEntries() {
+		return maxEntries;
+	}
+	
+	/**
+	 * Max number of entries in the map, on overflow the least recently accessed of a few sampled
+	 * entries of the written segment is evicted. The bound is split evenly among segments.
+	 * 
+	 * @param maxEntries max number of entries, 0(unbounded) by default
+	 * @return the config
+	 */
+	public BigConfig setMaxEntries(long maxEntries) {
+		this.maxEntries = maxEntries;
+		return this;
+	}
+	
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	/**
+	 * Max total bytes of keys and values in the map, enforced by the same sampled eviction as
+	 * {@link #setMaxEntries(long)}. The bound is split evenly among segments.
+	 * 
+	 * @param maxBytes max bytes of keys and values, 0(unbounded) by default
+	 * @return the config
+	 */
+	public BigConfig setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		return this;
+	}
+	
+	public long getExpiryBucketMs() {
+		return expiryBucketMs;
+	}
+	
+	/**
+	 * Width of the expiry buckets, entries with a fixed expiration time, see {@link ExpiryPolicy#AFTER_WRITE}
+	 * and {@link ExpiryPolicy#DEADLINE}, are written to data pages shared only by entries expiring in the
+	 * same bucket, so a page file is deleted as a whole once its bucket has passed instead of being reused
+	 * slot by slot. Entries expiring after access are not bucketed.
+	 * 
+	 * @param expiryBucketMs bucket width in ms, 0(no expiry buckets) by default
+	 * @return the config
+	 */
+	public BigConfig setExpiryBucketMs(long expiryBucketMs) {
+		this.expiryBucketMs = expiryBucketMs;
+		return this;
+	}
+	
+	public long getAccessTimeWriteIntervalMs() {
+		return accessTimeWriteIntervalMs;
+	}
+	
+	/**
+	 * Reads keep the access time of an entry on heap and write it to the mapped index page only
+	 * once the stored one is behind by this interval, so read mostly maps don't dirty index pages.
+	 * Access times kept on heap are written back when the map is cleared or closed.
+	 * 
+	 * @param accessTimeWriteIntervalMs write interval in ms, 0(written on every read) by default
+	 * @return the config
+	 */
+	public BigConfig setAccessTimeWriteIntervalMs(long accessTimeWriteIntervalMs) {
+		this.accessTimeWriteIntervalMs = accessTimeWriteIntervalMs;
+		return this;
+	}
+	
+	public Clock getClock() {
+		return clock;
+	}
+	
+	/**
+	 * Time source of expiration and access times, by default maps read the time from one
+	 * ticker thread shared by all of them, refreshing a cached timestamp every millisecond.
+	 * 
+	 * @param clock clock, null(shared ticker clock) by default
+	 * @return the config
+	 */
+	public BigConfig setClock(Clock clock) {
+		this.clock = clock;
+		return this;
+	}
+	
+	public ExpiryPolicy getExpiryPolicy() {
+		return expiryPolicy;
+	}
+	
+	/**
+	 * Expiry policy of the entries written with a time to live but no policy of their own.
+	 * 
+	 * @param expiryPolicy expiry policy, {@link ExpiryPolicy#AFTER_ACCESS} by default
+	 * @return the config
+	 */
+	public BigConfig setExpiryPolicy(ExpiryPolicy expiryPolicy) {
+		this.expiryPolicy = expiryPolicy;
+		return this;
+	}
+	
+	public IRemovalListener getRemovalListener() {
+		return removalListener;
+	}
+	
+	/**
+	 * Listener notified of entries expired, evicted or removed, in batches on a thread of the map.
+	 * 
+	 * @param removalListener removal listener, null(no notification) by default
+	 * @return the config
+	 */
+	public BigConfig setRemovalListener(IRemovalListener removalListener) {
+		this.removalListener = removalListener;
+		return this;
+	}
+	
+	public boolean isRemovalValueDelivered() {
+		return removalValueDelivered;
+	}
+	
+	/**
+	 * Whether removal notifications carry the value as well as the key, the value is read from the
+	 * mapped pages while the entry is released.
+	 * 
+	 * @param removalValueDelivered deliver values, false by default
+	 * @return the config
+	 */
+	public BigConfig setRemovalValueDelivered(boolean removalValueDelivered) {
+		this.removalValueDelivered = removalValueDelivered;
+		return this;
+	}
+	
+	public int getRemovalBatchSize() {
+		return removalBatchSize;
+	}
+	
+	/**
+	 * Max number of notifications passed to the removal listener in one call.
+	 * 
+	 * @param removalBatchSize batch size, 256 by default
+	 * @return the config
+	 */
+	public BigConfig setRemovalBatchSize(int removalBatchSize) {
+		this.removalBatchSize = removalBatchSize;
+		return this;
+	}
 }
@@ -0,0 +1,28 @@
+package com.ctriposs.bigmap;
+
+/**
+ * How the time to live of an entry is counted, kept in the status bits of the entry
+ * 
+ * @author bulldog
+ *
+ */
+public enum ExpiryPolicy {
+	
+	/**
+	 * The entry expires once it has not been accessed for the time to live,
+	 * every read extends it.
+	 */
+	AFTER_ACCESS,
+	
+	/**
+	 * The entry expires the time to live after it was written, reads don't extend it
+	 * and don't write the access time to the index page.
+	 */
+	AFTER_WRITE,
+	
+	/**
+	 * The time to live is the absolute expiration time in ms since the epoch, reads don't
+	 * extend it and don't write the access time to the index page.
+	 */
+	DEADLINE
+}
@@ -0,0 +1,174 @@
+package com.ctriposs.bigmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ctriposs.bigmap.BigConcurrentHashMapImpl.HashEntry;
+
+/**
+ * Hierarchical timing wheel of hash entries by expiration deadline, so purge only visits
+ * entries which are due instead of scanning the whole segment.
+ *
+ * Level 0 has one bucket per tick, each higher level buckets 64 times the span of the level
+ * below, entries cascade down as time approaches their deadline. Deadlines beyond the top
+ * level are parked in its last bucket and placed again when it comes due.
+ *
+ * A deadline is a hint, entries accessed since they were scheduled are due before they
+ * have expired, purge checks and reschedules them. Entries are linked into buckets
+ * through their own fields, so unscheduling is O(1).
+ * Not thread safe, one instance per segment is guarded by the segment lock.
+ *
+ * @author bulldog
+ *
+ */
+class ExpiryWheel {
+
+	static final int BUCKET_BITS = 6;
+	static final int BUCKETS = 1 << BUCKET_BITS;
+	static final int BUCKET_MASK = BUCKETS - 1;
+	static final int LEVELS = 4;
+
+	private final long tickMs;
+	private long currentTick;
+	private int size;
+
+	// sentinels of the bucket lists, [level][bucket]
+	private final HashEntry[][] buckets = new HashEntry[LEVELS][BUCKETS];
+
+	ExpiryWheel(long tickMs, long nowMs) {
+		this.tickMs = tickMs;
+		this.currentTick = nowMs / tickMs;
+		for(int level = 0; level < LEVELS; level++) {
+			for(int i = 0; i < BUCKETS; i++) {
+				HashEntry sentinel = new HashEntry(-1L, 0, null);
+				sentinel.wheelPrev = sentinel;
+				sentinel.wheelNext = sentinel;
+				buckets[level][i] = sentinel;
+			}
+		}
+	}
+
+	/**
+	 * Schedule, or reschedule, the entry to come due at the deadline
+	 *
+	 * @param e hash entry
+	 * @param deadlineMs expiration time in ms
+	 */
+	void schedule(HashEntry e, long deadlineMs) {
+		this.unschedule(e);
+		long tick = (deadlineMs + tickMs - 1) / tickMs;
+		e.expiryTick = Math.max(tick, currentTick + 1);
+		this.place(e);
+		size++;
+	}
+
+	/**
+	 * Remove the entry from the wheel if it is scheduled
+	 */
+	void unschedule(HashEntry e) {
+		if (e.wheelNext == null) return;
+		this.unlink(e);
+		size--;
+	}
+
+	/**
+	 * Advance the wheel towards now and take out at most max entries coming due on the way,
+	 * the next call resumes where this one stopped
+	 *
+	 * @param nowMs current time in ms
+	 * @param max max number of entries to take out
+	 * @return due entries, unscheduled, fewer than max means the wheel has caught up with now
+	 */
+	List<HashEntry> advance(long nowMs, int max) {
+		List<HashEntry> due = new ArrayList<HashEntry>();
+		long targetTick = nowMs / tickMs;
+		while(true) {
+			// the bucket of the current tick may have leftovers of a previous call
+			HashEntry sentinel = buckets[0][(int)(currentTick & BUCKET_MASK)];
+			while(sentinel.wheelNext != sentinel) {
+				if (due.size() >= max) return due;
+				HashEntry e = sentinel.wheelNext;
+				this.unlink(e);
+				size--;
+				due.add(e);
+			}
+			if (currentTick >= targetTick) break;
+			if (size == 0) { // nothing left, jump
+				currentTick = targetTick;
+				break;
+			}
+			currentTick++;
+			// cascade from the top, a higher level may refill a lower level bucket of this tick
+			for(int level = LEVELS - 1; level > 0; level--) {
+				if ((currentTick & ((1L << (level * BUCKET_BITS)) - 1)) == 0) {
+					this.cascade(level, (int)((currentTick >>> (level * BUCKET_BITS)) & BUCKET_MASK));
+				}
+			}
+		}
+		return due;
+	}
+
+	/**
+	 * Advance the wheel to now and take out all the entries coming due on the way
+	 *
+	 * @param nowMs current time in ms
+	 * @return due entries, unscheduled
+	 */
+	List<HashEntry> advance(long nowMs) {
+		return this.advance(nowMs, Integer.MAX_VALUE);
+	}
+
+	void clear() {
+		for(int level = 0; level < LEVELS; level++) {
+			for(int i = 0; i < BUCKETS; i++) {
+				HashEntry sentinel = buckets[level][i];
+				while(sentinel.wheelNext != sentinel) {
+					this.unlink(sentinel.wheelNext);
+				}
+			}
+		}
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void cascade(int level, int bucket) {
+		HashEntry sentinel = buckets[level][bucket];
+		while(sentinel.wheelNext != sentinel) {
+			HashEntry e = sentinel.wheelNext;
+			this.unlink(e);
+			this.place(e);
+		}
+	}
+
+	// the lowest level whose span still tells the deadline bucket apart from the current one
+	private void place(HashEntry e) {
+		long tick = Math.max(e.expiryTick, currentTick);
+		for(int level = 0; level < LEVELS; level++) {
+			int shift = level * BUCKET_BITS;
+			if ((tick >>> shift) - (currentTick >>> shift) < BUCKETS) {
+				this.link(buckets[level][(int)((tick >>> shift) & BUCKET_MASK)], e);
+				return;
+			}
+		}
+		// beyond the top level, park in its farthest bucket
+		int shift = (LEVELS - 1) * BUCKET_BITS;
+		this.link(buckets[LEVELS - 1][(int)(((currentTick >>> shift) + BUCKETS - 1) & BUCKET_MASK)], e);
+	}
+
+	private void link(HashEntry sentinel, HashEntry e) {
+		e.wheelPrev = sentinel.wheelPrev;
+		e.wheelNext = sentinel;
+		sentinel.wheelPrev.wheelNext = e;
+		sentinel.wheelPrev = e;
+	}
+
+	private void unlink(HashEntry e) {
+		e.wheelPrev.wheelNext = e.wheelNext;
+		e.wheelNext.wheelPrev = e.wheelPrev;
+		e.wheelPrev = null;
+		e.wheelNext = null;
+	}
+}
@@ -2,6 +2,9 @@ package com.ctriposs.bigmap;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
 
 public interface IBigConcurrentHashMap extends Closeable {
 	
@@ -26,6 +29,18 @@ public interface IBigConcurrentHashMap extends Closeable {
      */
 	public byte[] get(byte[] key);
 	
+    /**
+     * Returns a stream over the value to which the specified key is mapped,
+     * or {@code null} if this map contains no mapping for the key.
+     * 
+     * <p>The value is read from the backing files on demand, which suits large values
+     * that should not be materialized on heap. Reading from the stream fails with an
+     * <tt>IOException</tt> if the mapping is removed or replaced in the meantime.
+     * @throws RuntimeException throws if file IO operation fail
+     * @throws NullPointerException if the specified key is null
+     */
+	public InputStream getValueStream(byte[] key);
+	
     /**
      * Returns whether this map is empty.
      *
@@ -57,6 +72,22 @@ public interface IBigConcurrentHashMap extends Closeable {
      */
 	public byte[] put(byte[] key, byte[] value, long ttlInMs);
 	
+    /**
+     * Maps the specified key to the specified value in this table for the specified duration,
+     * counted by the specified expiry policy instead of the one of the map.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @param ttlInMs the time to live in ms, or the absolute expiration time in ms for {@link ExpiryPolicy#DEADLINE},
+     * 0 means "forever"
+     * @param policy how the time to live is counted
+     * @return the previous value associated with <tt>key</tt>, or
+     *         <tt>null</tt> if there was no mapping for <tt>key</tt>
+     * @throws RuntimeException throws if file IO operation fail
+     * @throws NullPointerException if the specified key, value or policy is null
+     */
+	public byte[] put(byte[] key, byte[] value, long ttlInMs, ExpiryPolicy policy);
+	
 	
     /**
      * Maps the specified key to the specified value in this table for the specified duration only if the key is absent.
@@ -78,6 +109,40 @@ public interface IBigConcurrentHashMap extends Closeable {
      */
 	public byte[] putIfAbsent(byte[] key, byte[] value, long ttlInMs);
 	
+    /**
+     * Records an access to the key without reading its value, an entry expiring after access
+     * starts its time to live over.
+     *
+     * @param key key whose entry is accessed
+     * @return <tt>true</tt> if this map contains a mapping for the key
+     * @throws RuntimeException throws if file IO operation fail
+     * @throws NullPointerException if the specified key is null
+     */
+	public boolean touch(byte[] key);
+	
+    /**
+     * Sets the time to live of the mapping for the key, counted from now, without rewriting
+     * the value. The expiry policy of the mapping is kept.
+     *
+     * @param key key whose entry expires
+     * @param ttlInMs the new time to live in ms, 0 means "forever"
+     * @return <tt>true</tt> if this map contains a mapping for the key
+     * @throws RuntimeException throws if file IO operation fail
+     * @throws NullPointerException if the specified key is null
+     */
+	public boolean expire(byte[] key, long ttlInMs);
+	
+    /**
+     * Removes the time to live of the mapping for the key, it stays in the map until removed,
+     * equivalent to <tt>expire(key, 0)</tt>.
+     *
+     * @param key key whose entry no longer expires
+     * @return <tt>true</tt> if this map contains a mapping for the key
+     * @throws RuntimeException throws if file IO operation fail
+     * @throws NullPointerException if the specified key is null
+     */
+	public boolean persist(byte[] key);
+	
     /**
      * Removes the key (and its corresponding value) from this map.
      * This method does nothing if the key is not in the map.
@@ -97,6 +162,41 @@ public interface IBigConcurrentHashMap extends Closeable {
      */
 	public int size();
 	
+    /**
+     * Returns an iterator over the keys of this map. The index pages are scanned sequentially,
+     * so the order is the order in which entries were allocated, not a hash order.
+     *
+     * <p>The iterator is weakly consistent, like the iterators of <tt>ConcurrentHashMap</tt>: it never
+     * throws <tt>ConcurrentModificationException</tt>, it returns every key present for the whole
+     * iteration, and may or may not return keys added or removed in the meantime. A key rewritten
+     * in the meantime may be returned twice, the rewrite moves it to another index item.
+     * <tt>remove</tt> removes the last returned key from the map.
+     *
+     * @return key iterator
+     * @throws RuntimeException throws if file IO operation fail
+     */
+	public Iterator<byte[]> keyIterator();
+	
+    /**
+     * Returns an iterator over the entries of this map, with the consistency of {@link #keyIterator()}.
+     * Values are read on the first <tt>getValue</tt> call, which returns null if the key has been
+     * removed or has expired since, and <tt>setValue</tt> puts the key into the map.
+     *
+     * @return entry iterator
+     * @throws RuntimeException throws if file IO operation fail
+     */
+	public Iterator<Map.Entry<byte[], byte[]>> entryIterator();
+	
+    /**
+     * Calls the consumer with every entry of this map, entries removed before their value
+     * is read are skipped.
+     *
+     * @param consumer entry consumer
+     * @throws RuntimeException throws if file IO operation fail
+     * @throws NullPointerException if the specified consumer is null
+     */
+	public void forEach(IEntryConsumer consumer);
+	
 	/**
 	 * remove all data in the map, including backing file.
 	 * 
@@ -110,4 +210,11 @@ public interface IBigConcurrentHashMap extends Closeable {
 	 * @return file stats
 	 */
 	public IMMFStats getMemoryMappedFileStats();
+	
+	/**
+	 * Stats for the on-heap near cache
+	 * 
+	 * @return near cache stats
+	 */
+	public INearCacheStats getNearCacheStats();
 }
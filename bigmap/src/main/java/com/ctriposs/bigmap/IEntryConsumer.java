@@ -0,0 +1,18 @@
+package com.ctriposs.bigmap;
+
+/**
+ * Callback of {@link IBigConcurrentHashMap#forEach(IEntryConsumer)}
+ * 
+ * @author bulldog
+ *
+ */
+public interface IEntryConsumer {
+	
+	/**
+	 * Called once for every live entry of the map
+	 * 
+	 * @param key key of the entry
+	 * @param value value of the entry
+	 */
+	public void accept(byte[] key, byte[] value);
+}
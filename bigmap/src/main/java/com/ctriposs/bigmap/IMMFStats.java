@@ -81,6 +81,29 @@ public interface IMMFStats {
      */
     long getTotalWastedSlotSize();
     
+    /**
+     * Get total size of data page tails skipped by page rolls and not filled by later allocations yet
+     * 
+     * @return total page tail size
+     */
+    long getTotalPageTailWastedSize();
+    
+    /**
+     * Get total bytes read from data page files by explicit I/O, always 0 unless data pages
+     * are accessed through file channels
+     * 
+     * @return total bytes read
+     */
+    long getDataPageReadBytes();
+    
+    /**
+     * Get total bytes written to data page files by explicit I/O, always 0 unless data pages
+     * are accessed through file channels
+     * 
+     * @return total bytes written
+     */
+    long getDataPageWriteBytes();
+    
     /**
      * Total number of acquire counter
      * 
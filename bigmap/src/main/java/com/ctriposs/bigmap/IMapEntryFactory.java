@@ -21,6 +21,29 @@ public interface IMapEntryFactory extends Closeable, IMMFStats {
 	 */
 	public MapEntry acquire(int length) throws IOException;
 	
+	/**
+	 * Acquire a map entry able to hold a key and a value with specific lengths,
+	 * values not fitting into one slot are split into chunks stored in separate slots.
+	 * 
+	 * @param keyLength length of the key
+	 * @param valueLength length of the value
+	 * @return a map entry with key length and value length set
+	 * @throws IOException exception throw during the acquire operation
+	 */
+	public MapEntry acquire(int keyLength, int valueLength) throws IOException;
+	
+	/**
+	 * Acquire a map entry able to hold a key and a value with specific lengths and expiration time,
+	 * with expiry buckets enabled an entry with a fixed expiration time goes to a data page of its expiry bucket.
+	 * 
+	 * @param keyLength length of the key
+	 * @param valueLength length of the value
+	 * @param expiryTime fixed expiration time in ms, 0 means no fixed expiration
+	 * @return a map entry with key length and value length set
+	 * @throws IOException exception throw during the acquire operation
+	 */
+	public MapEntry acquire(int keyLength, int valueLength, long expiryTime) throws IOException;
+	
 	/**
 	 * Release a map entry into the pool
 	 * 
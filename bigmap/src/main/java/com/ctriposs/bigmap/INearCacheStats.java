@@ -0,0 +1,31 @@
+package com.ctriposs.bigmap;
+
+/**
+ * On-heap near cache stats
+ * 
+ * @author bulldog
+ *
+ */
+public interface INearCacheStats {
+	
+	/**
+	 * Get number of reads served by the near cache
+	 * 
+	 * @return hit count
+	 */
+	long getNearCacheHitCount();
+	
+	/**
+	 * Get number of reads of keys in the map not served by the near cache, always 0 if the near cache is disabled
+	 * 
+	 * @return miss count
+	 */
+	long getNearCacheMissCount();
+	
+	/**
+	 * Get total bytes of keys and values held in the near cache
+	 * 
+	 * @return near cache size in bytes
+	 */
+	long getNearCacheUsedBytes();
+}
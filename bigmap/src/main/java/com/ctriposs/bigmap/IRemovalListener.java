@@ -0,0 +1,23 @@
+package com.ctriposs.bigmap;
+
+import java.util.List;
+
+/**
+ * Listener notified of entries expired, evicted or removed from the map.
+ * 
+ * Notifications are queued while the entries are released and delivered in batches on a
+ * background thread of the map, never under a segment lock, so the listener may call back into
+ * the map. Entries replaced by a put or cleared with the map are not notified.
+ * 
+ * @author bulldog
+ *
+ */
+public interface IRemovalListener {
+	
+	/**
+	 * Called with the notifications queued since the last call, in removal order per segment
+	 * 
+	 * @param notifications a batch of notifications, never empty
+	 */
+	public void onRemoval(List<RemovalNotification> notifications);
+}
@@ -1,7 +1,7 @@
 package com.ctriposs.bigmap;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InputStream;
 import java.util.Arrays;
 
 import com.ctriposs.bigmap.page.IMappedPage;
@@ -23,34 +23,169 @@ public class MapEntry {
 	final static int INDEX_ITEM_MAP_ENTRY_CREATED_TIME_OFFSET = 24;
 	final static int INDEX_ITEM_MAP_ENTRY_LAST_ACCESS_TIME_OFFSET = 32;
 	final static int INDEX_ITEM_MAP_ENTRY_TIME_TO_LIVE_OFFSET = 40;
+	final static int INDEX_ITEM_MAP_ENTRY_CHUNK_COUNT_OFFSET = 48;
+	// bumped every time the slot is released, tells a reused slot from the entry it held before
+	final static int INDEX_ITEM_MAP_ENTRY_GENERATION_OFFSET = 52;
 	final static int INDEX_ITEM_MAP_ENTRY_STATUS = 60;
 	
-	private IMappedPage indexPage;
+	// a chunked entry stores the key followed by a list of chunk extents in its own slot,
+	// each extent points to a chunk entry holding part of the value.
+	final static int CHUNK_EXTENT_INDEX_OFFSET = 0;
+	final static int CHUNK_EXTENT_DATA_PAGE_INDEX_OFFSET = 8;
+	final static int CHUNK_EXTENT_DATA_SLOT_OFFSET_OFFSET = 16;
+	final static int CHUNK_EXTENT_DATA_LENGTH_OFFSET = 20;
+	final static int CHUNK_EXTENT_LENGTH = 24;
+	
+	private final static ExpiryPolicy[] EXPIRY_POLICIES = ExpiryPolicy.values();
+	
+	// pages are acquired per access and released right after, so an unused page can be unmapped by a bounded page factory
+	private IMappedPageFactory indexPageFactory;
+	private long indexPageIndex;
 	private IMappedPageFactory dataPageFactory;
 	private long index;
 	private int indexItemOffset;
 	private int realLength;
 	
-	public MapEntry(long index, int realLength, int indexItemOffset, IMappedPage indexPage, IMappedPageFactory dataPageFactory) {
+	public MapEntry(long index, int realLength, long indexPageIndex, int indexItemOffset, IMappedPageFactory indexPageFactory, IMappedPageFactory dataPageFactory) {
 		this.index = index;
 		this.realLength = realLength;
+		this.indexPageIndex = indexPageIndex;
 		this.indexItemOffset = indexItemOffset;
-		this.indexPage = indexPage;
+		this.indexPageFactory = indexPageFactory;
 		this.dataPageFactory = dataPageFactory;
 	}
 	
-	public MapEntry(long index, int indexItemOffset, IMappedPage indexPage, IMappedPageFactory dataPageFactory) {
+	public MapEntry(long index, long indexPageIndex, int indexItemOffset, IMappedPageFactory indexPageFactory, IMappedPageFactory dataPageFactory) throws IOException {
 		this.index = index;
+		this.indexPageIndex = indexPageIndex;
 		this.indexItemOffset = indexItemOffset;
-		this.indexPage = indexPage;
+		this.indexPageFactory = indexPageFactory;
 		this.dataPageFactory = dataPageFactory;
-		this.realLength = this.getKeyLength() + this.getValueLength();
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			if ((this.getStatus(indexPage) & (1 << 2)) != 0) {
+				this.realLength = this.getIndexInt(indexPage, INDEX_ITEM_MAP_ENTRY_KEY_LENGTH_OFFSET) + this.getIndexInt(indexPage, INDEX_ITEM_MAP_ENTRY_CHUNK_COUNT_OFFSET) * CHUNK_EXTENT_LENGTH;
+			} else {
+				this.realLength = this.getIndexInt(indexPage, INDEX_ITEM_MAP_ENTRY_KEY_LENGTH_OFFSET) + this.getIndexInt(indexPage, INDEX_ITEM_MAP_ENTRY_VALUE_LENGTH_OFFSET);
+			}
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
 	}
 	
 	public long getIndex() {
 		return this.index;
 	}
 	
+	// compound operations pin the index page once and use the page variants below
+	private IMappedPage acquireIndexPage() throws IOException {
+		return indexPageFactory.acquirePage(indexPageIndex);
+	}
+	
+	private void releaseIndexPage(IMappedPage indexPage) {
+		indexPageFactory.releasePage(indexPage);
+	}
+	
+	private int getIndexInt(IMappedPage indexPage, int offset) {
+		return indexPage.getInt(indexItemOffset + offset);
+	}
+	
+	private long getIndexLong(IMappedPage indexPage, int offset) {
+		return indexPage.getLong(indexItemOffset + offset);
+	}
+	
+	private byte getStatus(IMappedPage indexPage) {
+		return indexPage.get(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS);
+	}
+	
+	private int getIndexInt(int offset) throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			return this.getIndexInt(indexPage, offset);
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
+	}
+	
+	private void putIndexInt(int offset, int value) throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			indexPage.putInt(indexItemOffset + offset, value);
+			indexPage.setDirty(true);
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
+	}
+	
+	private long getIndexLong(int offset) throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			return this.getIndexLong(indexPage, offset);
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
+	}
+	
+	private void putIndexLong(int offset, long value) throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			indexPage.putLong(indexItemOffset + offset, value);
+			indexPage.setDirty(true);
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
+	}
+	
+	private byte getStatus() throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			return this.getStatus(indexPage);
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
+	}
+	
+	// read-modify-write of the status byte under a single pin
+	private void updateStatus(int setBits, int clearBits) throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			byte status = this.getStatus(indexPage);
+			status = (byte) ((status & ~clearBits) | setBits);
+			indexPage.put(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS, status);
+			indexPage.setDirty(true);
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
+	}
+	
+	/**
+	 * Location and layout of the entry in its data slot, read under a single pin of the index page
+	 */
+	private static class SlotLocation {
+		long dataPageIndex;
+		int dataSlotOffset;
+		int keyLength;
+		int valueLength;
+		boolean chunked;
+		int chunkCount;
+	}
+	
+	private SlotLocation getSlotLocation() throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			SlotLocation location = new SlotLocation();
+			location.dataPageIndex = this.getIndexLong(indexPage, INDEX_ITEM_DATA_PAGE_INDEX_OFFSET);
+			location.dataSlotOffset = this.getIndexInt(indexPage, INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET);
+			location.keyLength = this.getIndexInt(indexPage, INDEX_ITEM_MAP_ENTRY_KEY_LENGTH_OFFSET);
+			location.valueLength = this.getIndexInt(indexPage, INDEX_ITEM_MAP_ENTRY_VALUE_LENGTH_OFFSET);
+			location.chunked = (this.getStatus(indexPage) & (1 << 2)) != 0;
+			location.chunkCount = this.getIndexInt(indexPage, INDEX_ITEM_MAP_ENTRY_CHUNK_COUNT_OFFSET);
+			return location;
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
+	}
+	
 	/**
 	 * key length + value length
 	 * @return length
@@ -59,129 +194,395 @@ public class MapEntry {
 		return this.realLength;
 	}
 	
-	public int getSlotSize() {
-		return indexPage.getLocal().getInt(indexItemOffset + INDEX_ITEM_DATA_SLOT_LENGTH_OFFSET);
+	long getDataPageIndex() throws IOException {
+		return this.getIndexLong(INDEX_ITEM_DATA_PAGE_INDEX_OFFSET);
+	}
+	
+	int getDataSlotOffset() throws IOException {
+		return this.getIndexInt(INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET);
+	}
+	
+	public int getSlotSize() throws IOException {
+		return this.getIndexInt(INDEX_ITEM_DATA_SLOT_LENGTH_OFFSET);
+	}
+	
+	public int getKeyLength() throws IOException {
+		return this.getIndexInt(INDEX_ITEM_MAP_ENTRY_KEY_LENGTH_OFFSET);
+	}
+	
+	public void putKeyLength(int keyLength) throws IOException {
+		this.putIndexInt(INDEX_ITEM_MAP_ENTRY_KEY_LENGTH_OFFSET, keyLength);
+	}
+	
+	public int getValueLength() throws IOException {
+		return this.getIndexInt(INDEX_ITEM_MAP_ENTRY_VALUE_LENGTH_OFFSET);
 	}
 	
-	public int getKeyLength() {
-		return indexPage.getLocal().getInt(indexItemOffset + INDEX_ITEM_MAP_ENTRY_KEY_LENGTH_OFFSET);
+	public void putValueLength(int valueLength) throws IOException {
+		this.putIndexInt(INDEX_ITEM_MAP_ENTRY_VALUE_LENGTH_OFFSET, valueLength);
 	}
 	
-	public void putKeyLength(int keyLength) {
-		indexPage.getLocal().putInt(indexItemOffset + INDEX_ITEM_MAP_ENTRY_KEY_LENGTH_OFFSET, keyLength);
-		indexPage.setDirty(true);
+	public long getCreatedTime() throws IOException {
+		return this.getIndexLong(INDEX_ITEM_MAP_ENTRY_CREATED_TIME_OFFSET);
 	}
 	
-	public int getValueLength() {
-		return indexPage.getLocal().getInt(indexItemOffset + INDEX_ITEM_MAP_ENTRY_VALUE_LENGTH_OFFSET);
+	public void putCreatedTime(long createdTime) throws IOException {
+		this.putIndexLong(INDEX_ITEM_MAP_ENTRY_CREATED_TIME_OFFSET, createdTime);
 	}
 	
-	public void putValueLength(int valueLength) {
-		indexPage.getLocal().putInt(indexItemOffset + INDEX_ITEM_MAP_ENTRY_VALUE_LENGTH_OFFSET, valueLength);
-		indexPage.setDirty(true);
+	public long getLastAccessedTime() throws IOException {
+		return this.getIndexLong(INDEX_ITEM_MAP_ENTRY_LAST_ACCESS_TIME_OFFSET);
 	}
 	
-	public long getCreatedTime() {
-		return indexPage.getLocal().getLong(indexItemOffset + INDEX_ITEM_MAP_ENTRY_CREATED_TIME_OFFSET);
+	public void putLastAccessedTime(long lastAccessedTime) throws IOException {
+		this.putIndexLong(INDEX_ITEM_MAP_ENTRY_LAST_ACCESS_TIME_OFFSET, lastAccessedTime);
 	}
 	
-	public void putCreatedTime(long createdTime) {
-		indexPage.getLocal().putLong(indexItemOffset + INDEX_ITEM_MAP_ENTRY_CREATED_TIME_OFFSET, createdTime);
-		indexPage.setDirty(true);
+	public long getTimeToLive() throws IOException {
+		return this.getIndexLong(INDEX_ITEM_MAP_ENTRY_TIME_TO_LIVE_OFFSET);
 	}
 	
-	public long getLastAccessedTime() {
-		return indexPage.getLocal().getLong(indexItemOffset + INDEX_ITEM_MAP_ENTRY_LAST_ACCESS_TIME_OFFSET);
+	public void putTimeToLive(long ttlInMs) throws IOException {
+		this.putIndexLong(INDEX_ITEM_MAP_ENTRY_TIME_TO_LIVE_OFFSET, ttlInMs);
 	}
 	
-	public void putLastAccessedTime(long lastAccessedTime) {
-		indexPage.getLocal().putLong(indexItemOffset + INDEX_ITEM_MAP_ENTRY_LAST_ACCESS_TIME_OFFSET, lastAccessedTime);
-		indexPage.setDirty(true);
+	public int getChunkCount() throws IOException {
+		return this.getIndexInt(INDEX_ITEM_MAP_ENTRY_CHUNK_COUNT_OFFSET);
 	}
 	
-	public long getTimeToLive() {
-		return indexPage.getLocal().getLong(indexItemOffset + INDEX_ITEM_MAP_ENTRY_TIME_TO_LIVE_OFFSET);
+	public void putChunkCount(int chunkCount) throws IOException {
+		this.putIndexInt(INDEX_ITEM_MAP_ENTRY_CHUNK_COUNT_OFFSET, chunkCount);
 	}
 	
-	public void putTimeToLive(long ttlInMs) {
-		indexPage.getLocal().putLong(indexItemOffset + INDEX_ITEM_MAP_ENTRY_TIME_TO_LIVE_OFFSET, ttlInMs);
-		indexPage.setDirty(true);
+	int getGeneration() throws IOException {
+		return this.getIndexInt(INDEX_ITEM_MAP_ENTRY_GENERATION_OFFSET);
+	}
+	
+	void bumpGeneration() throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			indexPage.putInt(indexItemOffset + INDEX_ITEM_MAP_ENTRY_GENERATION_OFFSET, this.getIndexInt(indexPage, INDEX_ITEM_MAP_ENTRY_GENERATION_OFFSET) + 1);
+			indexPage.setDirty(true);
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
 	}
 	
-	public boolean isReleased() {
-		byte status = indexPage.getLocal().get(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS);
+	public boolean isReleased() throws IOException {
+		byte status = this.getStatus();
 		return (status & (1 << 1)) != 0;
 	}
 	
-	public void markReleased() {
-		byte status = indexPage.getLocal().get(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS);
-		status = (byte) (status | ( 1 << 1));
-		indexPage.getLocal().put(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS, status);
-		indexPage.setDirty(true);
+	public void markReleased() throws IOException {
+		this.updateStatus(1 << 1, 0);
 	}
 	
-	public boolean isInUse() {
-		byte status = indexPage.getLocal().get(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS);
+	public boolean isInUse() throws IOException {
+		byte status = this.getStatus();
 		return (status & (1 << 1)) == 0;
 	}
 	
-	public void MarkInUse() {
-		byte status = indexPage.getLocal().get(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS);
-	    status = (byte) (status & ~( 1 << 1));
-		indexPage.getLocal().put(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS, status);
-		indexPage.setDirty(true);
+	public void MarkInUse() throws IOException {
+		this.updateStatus(0, 1 << 1);
 	}
 	
-	public boolean isAllocated() {
-		byte status = indexPage.getLocal().get(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS);
+	public boolean isAllocated() throws IOException {
+		byte status = this.getStatus();
 		return (status & 1) != 0;
 	}
 	
-	public void MarkAllocated() {
-		byte status = indexPage.getLocal().get(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS);
-		status = (byte) (status | 1);
-		indexPage.getLocal().put(indexItemOffset + INDEX_ITEM_MAP_ENTRY_STATUS, status);
-		indexPage.setDirty(true);
+	public void MarkAllocated() throws IOException {
+		this.updateStatus(1, 0);
+	}
+	
+	/**
+	 * Is the value of this entry split into chunks stored in other slots
+	 * 
+	 * @return true if chunked, false otherwise
+	 */
+	public boolean isChunked() throws IOException {
+		byte status = this.getStatus();
+		return (status & (1 << 2)) != 0;
+	}
+	
+	public void markChunked() throws IOException {
+		this.updateStatus(1 << 2, 0);
+	}
+	
+	/**
+	 * Is this entry a chunk of the value of another(chunked) entry
+	 * 
+	 * @return true if chunk, false otherwise
+	 */
+	public boolean isChunk() throws IOException {
+		byte status = this.getStatus();
+		return (status & (1 << 3)) != 0;
+	}
+	
+	public void markChunk() throws IOException {
+		this.updateStatus(1 << 3, 0);
+	}
+	
+	/**
+	 * Is this entry in a data page of an expiry bucket, such an entry has a fixed expiration time
+	 * and its slot goes away with the page instead of being reused
+	 * 
+	 * @return true if bucketed, false otherwise
+	 */
+	public boolean isBucketed() throws IOException {
+		byte status = this.getStatus();
+		return (status & (1 << 4)) != 0;
+	}
+	
+	public void markBucketed() throws IOException {
+		this.updateStatus(1 << 4, 0);
+	}
+	
+	/**
+	 * Expiry policy, in status bits 5 and 6
+	 * 
+	 * @return expiry policy of this entry
+	 */
+	public ExpiryPolicy getExpiryPolicy() throws IOException {
+		byte status = this.getStatus();
+		return EXPIRY_POLICIES[(status >>> 5) & 3];
+	}
+	
+	public void putExpiryPolicy(ExpiryPolicy policy) throws IOException {
+		this.updateStatus(policy.ordinal() << 5, 3 << 5);
+	}
+	
+	/**
+	 * Entries with a fixed expiration time keep it in the time to live field, the
+	 * others expire the time to live after the last access
+	 * 
+	 * @return expiration time in ms, 0 if the entry has no time to live
+	 */
+	public long getExpiryTime() throws IOException {
+		IMappedPage indexPage = this.acquireIndexPage();
+		try {
+			long ttlInMs = this.getIndexLong(indexPage, INDEX_ITEM_MAP_ENTRY_TIME_TO_LIVE_OFFSET);
+			if (ttlInMs <= 0) return 0L;
+			if (EXPIRY_POLICIES[(this.getStatus(indexPage) >>> 5) & 3] != ExpiryPolicy.AFTER_ACCESS) return ttlInMs;
+			return this.getIndexLong(indexPage, INDEX_ITEM_MAP_ENTRY_LAST_ACCESS_TIME_OFFSET) + ttlInMs;
+		} finally {
+			this.releaseIndexPage(indexPage);
+		}
+	}
+	
+	// a reused slot may have been a chunk or chunked entry before
+	public void clearChunkMarks() throws IOException {
+		this.updateStatus(0, (1 << 2) | (1 << 3));
 	}
 	
 	public byte[] getEntryKey() throws IOException {
-		long dataPageIndex = indexPage.getLocal().getLong(indexItemOffset + INDEX_ITEM_DATA_PAGE_INDEX_OFFSET);
-		int dataSlotOffset = indexPage.getLocal().getInt(indexItemOffset + INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET);
-		int entryKeyOffset = dataSlotOffset;
-		int entryKeyLength = this.getKeyLength();
-		IMappedPage dataPage = dataPageFactory.acquirePage(dataPageIndex);
-		byte[] value = dataPage.getLocal(entryKeyOffset, entryKeyLength);
-		return value;
+		SlotLocation location = this.getSlotLocation();
+		IMappedPage dataPage = dataPageFactory.acquirePage(location.dataPageIndex);
+		try {
+			return dataPage.getLocal(location.dataSlotOffset, location.keyLength);
+		} finally {
+			dataPageFactory.releasePage(dataPage);
+		}
 	}
 	
 	public void putEntryKey(byte[] entryKey) throws IOException {
-		long dataPageIndex = indexPage.getLocal().getLong(indexItemOffset + INDEX_ITEM_DATA_PAGE_INDEX_OFFSET);
-		int dataSlotOffset = indexPage.getLocal().getInt(indexItemOffset + INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET);
-		int entryKeyOffset = dataSlotOffset;
-		IMappedPage dataPage = dataPageFactory.acquirePage(dataPageIndex);
-		ByteBuffer dataItemBuffer = dataPage.getLocal(entryKeyOffset);
-		dataItemBuffer.put(entryKey);
-		dataPage.setDirty(true);
+		SlotLocation location = this.getSlotLocation();
+		IMappedPage dataPage = dataPageFactory.acquirePage(location.dataPageIndex);
+		try {
+			dataPage.putBytes(location.dataSlotOffset, entryKey, 0, entryKey.length);
+			dataPage.setDirty(true);
+		} finally {
+			dataPageFactory.releasePage(dataPage);
+		}
 	}
 	
 	public byte[] getEntryValue() throws IOException {
-		long dataPageIndex = indexPage.getLocal().getLong(indexItemOffset + INDEX_ITEM_DATA_PAGE_INDEX_OFFSET);
-		int dataSlotOffset = indexPage.getLocal().getInt(indexItemOffset + INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET);
-		int entryValueOffset = dataSlotOffset + this.getKeyLength();
-		int entryValueLength = getValueLength();
-		IMappedPage dataPage = dataPageFactory.acquirePage(dataPageIndex);
-		byte[] value = dataPage.getLocal(entryValueOffset, entryValueLength);
-		return value;
+		SlotLocation location = this.getSlotLocation();
+		if (location.chunked) {
+			byte[] value = new byte[location.valueLength];
+			int valueOffset = 0;
+			for(ChunkExtent extent : this.getChunkExtents(location)) {
+				IMappedPage dataPage = dataPageFactory.acquirePage(extent.dataPageIndex);
+				try {
+					dataPage.getBytes(extent.dataSlotOffset, value, valueOffset, extent.length);
+				} finally {
+					dataPageFactory.releasePage(dataPage);
+				}
+				valueOffset += extent.length;
+			}
+			return value;
+		}
+		IMappedPage dataPage = dataPageFactory.acquirePage(location.dataPageIndex);
+		try {
+			return dataPage.getLocal(location.dataSlotOffset + location.keyLength, location.valueLength);
+		} finally {
+			dataPageFactory.releasePage(dataPage);
+		}
 	}
 	
 	public void putEntryValue(byte[] entryValue) throws IOException {
-		long dataPageIndex = indexPage.getLocal().getLong(indexItemOffset + INDEX_ITEM_DATA_PAGE_INDEX_OFFSET);
-		int dataSlotOffset = indexPage.getLocal().getInt(indexItemOffset + INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET);
-		int entryValueOffset = dataSlotOffset + this.getKeyLength();
-		IMappedPage dataPage = dataPageFactory.acquirePage(dataPageIndex);
-		ByteBuffer dataItemBuffer = dataPage.getLocal(entryValueOffset);
-		dataItemBuffer.put(entryValue);
-		dataPage.setDirty(true);
+		SlotLocation location = this.getSlotLocation();
+		if (location.chunked) {
+			int valueOffset = 0;
+			for(ChunkExtent extent : this.getChunkExtents(location)) {
+				IMappedPage dataPage = dataPageFactory.acquirePage(extent.dataPageIndex);
+				try {
+					dataPage.putBytes(extent.dataSlotOffset, entryValue, valueOffset, extent.length);
+					dataPage.setDirty(true);
+				} finally {
+					dataPageFactory.releasePage(dataPage);
+				}
+				valueOffset += extent.length;
+			}
+			return;
+		}
+		IMappedPage dataPage = dataPageFactory.acquirePage(location.dataPageIndex);
+		try {
+			dataPage.putBytes(location.dataSlotOffset + location.keyLength, entryValue, 0, entryValue.length);
+			dataPage.setDirty(true);
+		} finally {
+			dataPageFactory.releasePage(dataPage);
+		}
+	}
+	
+	/**
+	 * Get a stream reading the value directly from the data pages, chunk by chunk,
+	 * so a large value never needs to be materialized on heap.
+	 * 
+	 * @return an input stream of the entry value
+	 * @throws IOException exception thrown during the read operation
+	 */
+	public InputStream getEntryValueStream() throws IOException {
+		ChunkExtent[] extents;
+		SlotLocation location = this.getSlotLocation();
+		if (location.chunked) {
+			extents = this.getChunkExtents(location);
+		} else {
+			ChunkExtent extent = new ChunkExtent();
+			extent.index = this.index;
+			extent.dataPageIndex = location.dataPageIndex;
+			extent.dataSlotOffset = location.dataSlotOffset + location.keyLength;
+			extent.length = location.valueLength;
+			extents = new ChunkExtent[] { extent };
+		}
+		return new ValueInputStream(this, extents);
+	}
+	
+	/**
+	 * Record the location of the i-th chunk in the extent list following the key
+	 * 
+	 * @param i chunk sequence
+	 * @param chunk the chunk entry
+	 * @throws IOException exception thrown during the write operation
+	 */
+	void putChunkExtent(int i, MapEntry chunk) throws IOException {
+		SlotLocation location = this.getSlotLocation();
+		SlotLocation chunkLocation = chunk.getSlotLocation();
+		int extentOffset = location.dataSlotOffset + location.keyLength + i * CHUNK_EXTENT_LENGTH;
+		IMappedPage dataPage = dataPageFactory.acquirePage(location.dataPageIndex);
+		try {
+			dataPage.putLong(extentOffset + CHUNK_EXTENT_INDEX_OFFSET, chunk.getIndex());
+			dataPage.putLong(extentOffset + CHUNK_EXTENT_DATA_PAGE_INDEX_OFFSET, chunkLocation.dataPageIndex);
+			dataPage.putInt(extentOffset + CHUNK_EXTENT_DATA_SLOT_OFFSET_OFFSET, chunkLocation.dataSlotOffset);
+			dataPage.putInt(extentOffset + CHUNK_EXTENT_DATA_LENGTH_OFFSET, chunkLocation.valueLength);
+			dataPage.setDirty(true);
+		} finally {
+			dataPageFactory.releasePage(dataPage);
+		}
+	}
+	
+	ChunkExtent[] getChunkExtents() throws IOException {
+		return this.getChunkExtents(this.getSlotLocation());
+	}
+	
+	private ChunkExtent[] getChunkExtents(SlotLocation location) throws IOException {
+		int chunkCount = location.chunkCount;
+		ChunkExtent[] extents = new ChunkExtent[chunkCount];
+		int extentOffset = location.dataSlotOffset + location.keyLength;
+		IMappedPage dataPage = dataPageFactory.acquirePage(location.dataPageIndex);
+		try {
+			for(int i = 0; i < chunkCount; i++) {
+				ChunkExtent extent = new ChunkExtent();
+				extent.index = dataPage.getLong(extentOffset + CHUNK_EXTENT_INDEX_OFFSET);
+				extent.dataPageIndex = dataPage.getLong(extentOffset + CHUNK_EXTENT_DATA_PAGE_INDEX_OFFSET);
+				extent.dataSlotOffset = dataPage.getInt(extentOffset + CHUNK_EXTENT_DATA_SLOT_OFFSET_OFFSET);
+				extent.length = dataPage.getInt(extentOffset + CHUNK_EXTENT_DATA_LENGTH_OFFSET);
+				extents[i] = extent;
+				extentOffset += CHUNK_EXTENT_LENGTH;
+			}
+		} finally {
+			dataPageFactory.releasePage(dataPage);
+		}
+		return extents;
+	}
+	
+	static class ChunkExtent {
+		long index;
+		long dataPageIndex;
+		int dataSlotOffset;
+		int length;
+	}
+	
+	/**
+	 * Stream over the value extents of an entry, reads fail fast if the entry
+	 * has been released or reused since the stream was opened.
+	 */
+	private static class ValueInputStream extends InputStream {
+		private final MapEntry mapEntry;
+		private final ChunkExtent[] extents;
+		private final int generation;
+		private int current = 0;
+		private int currentOffset = 0;
+		
+		ValueInputStream(MapEntry mapEntry, ChunkExtent[] extents) throws IOException {
+			this.mapEntry = mapEntry;
+			this.extents = extents;
+			this.generation = mapEntry.getGeneration();
+		}
+		
+		// the header generation is bumped before the chunks of a chunked entry are released, it covers them
+		private void checkUnchanged() throws IOException {
+			if (!mapEntry.isInUse() || mapEntry.getGeneration() != generation) {
+				throw new IOException("map entry " + mapEntry.getIndex() + " was changed during read");
+			}
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = this.read(b, 0, 1);
+			return n < 0 ? -1 : b[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			while(current < extents.length && currentOffset == extents[current].length) {
+				current++;
+				currentOffset = 0;
+			}
+			if (current == extents.length) return -1;
+			
+			this.checkUnchanged();
+			
+			ChunkExtent extent = extents[current];
+			int n = Math.min(len, extent.length - currentOffset);
+			IMappedPage dataPage = mapEntry.dataPageFactory.acquirePage(extent.dataPageIndex);
+			try {
+				dataPage.getBytes(extent.dataSlotOffset + currentOffset, b, off, n);
+			} finally {
+				mapEntry.dataPageFactory.releasePage(dataPage);
+			}
+			this.checkUnchanged(); // released and reused during the copy, the bytes may be another entry's
+			currentOffset += n;
+			return n;
+		}
+		
+		@Override
+		public int available() {
+			if (current == extents.length) return 0;
+			return extents[current].length - currentOffset;
+		}
 	}
 	
 	@Override
@@ -2,10 +2,22 @@ package com.ctriposs.bigmap;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -16,9 +28,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ctriposs.bigmap.page.MappedPageFactoryImpl;
+import com.ctriposs.bigmap.page.OffHeapPageFactoryImpl;
+import com.ctriposs.bigmap.page.FileChannelPageFactoryImpl;
 import com.ctriposs.bigmap.page.IMappedPage;
 import com.ctriposs.bigmap.page.IMappedPageFactory;
 import com.ctriposs.bigmap.utils.Calculator;
+import com.ctriposs.bigmap.utils.Clock;
 import com.ctriposs.bigmap.utils.FileUtil;
 
 /**
@@ -39,18 +54,19 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 	final static String META_DATA_PAGE_FOLDER = "meta_data";
 	
 	// 2 ^ 20 = 1024 * 1024
-	final static int INDEX_ITEMS_PER_PAGE_BITS = 20; // 1024 * 1024
-	// number of items per page
-	final static int INDEX_ITEMS_PER_PAGE = 1 << INDEX_ITEMS_PER_PAGE_BITS;
+	public final static int DEFAULT_INDEX_ITEMS_PER_PAGE_BITS = 20; // 1024 * 1024
+	// bounds of index items per page bits, 4K to 1G index page
+	public final static int MIN_INDEX_ITEMS_PER_PAGE_BITS = 6;
+	public final static int MAX_INDEX_ITEMS_PER_PAGE_BITS = 24;
 	// 2 ^ 6 = 64
 	final static int INDEX_ITEM_LENGTH_BITS = 6;
 	// length in bytes of an index item
 	final static int INDEX_ITEM_LENGTH = 1 << INDEX_ITEM_LENGTH_BITS; 
-	// size in bytes of an index page
-	final static int INDEX_PAGE_SIZE = INDEX_ITEM_LENGTH * INDEX_ITEMS_PER_PAGE;
 	
 	// default size in bytes of a data page
-	public final static int DATA_PAGE_SIZE = 128 * 1024 * 1024; // 128M
+	public final static int DEFAULT_DATA_PAGE_SIZE = 128 * 1024 * 1024; // 128M
+	// min size in bytes of a data page
+	public final static int MIN_DATA_PAGE_SIZE = 4 * 1024; // 4K
 	
 	// 2 ^ 24 = 1024 * 1024 * 16
 	final static int MAX_DATA_SLOT_LENGTH_BITS = 24; // 1024 * 1024 * 16
@@ -61,17 +77,54 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 	public final static int FREE_ENTRY_ARRAY_ITEM_BITS = 4; // 16
 	public final static int FREE_ENTRY_ARRAY_SIZE = MAX_DATA_SLOT_LENGTH >> FREE_ENTRY_ARRAY_ITEM_BITS;
 	
-	// 2 ^ 4 = 16
-	final static int META_DATA_ITEM_LENGTH_BITS = 4;
+	// 2 ^ 6 = 64
+	final static int META_DATA_ITEM_LENGTH_BITS = 6;
 	// size in bytes of a meta data page
 	final static int META_DATA_PAGE_SIZE = 1 << META_DATA_ITEM_LENGTH_BITS;
 	
+	// layout of the meta data page, a version 0(legacy) page only has the head and tail index
+	final static int META_DATA_ARRAY_HEAD_INDEX_OFFSET = 0;
+	final static int META_DATA_ARRAY_TAIL_INDEX_OFFSET = 8;
+	final static int META_DATA_VERSION_OFFSET = 16;
+	final static int META_DATA_INDEX_ITEMS_PER_PAGE_BITS_OFFSET = 20;
+	final static int META_DATA_INDEX_ITEM_LENGTH_OFFSET = 24;
+	final static int META_DATA_DATA_PAGE_SIZE_OFFSET = 28;
+	// since version 2, the data head can't be derived from the last index item once page tails are reused
+	final static int META_DATA_HEAD_DATA_PAGE_INDEX_OFFSET = 32;
+	final static int META_DATA_HEAD_DATA_ITEM_OFFSET_OFFSET = 40;
+	// current meta data version
+	final static int META_DATA_VERSION = 2;
+	
+	// array and data heads are checkpointed to the meta data once per this many new allocations,
+	// reload recovers the allocations after the last checkpoint by scanning the index forward
+	final static int META_DATA_CHECKPOINT_INTERVAL = 1024;
+	
+	// the next data or index page is mapped in background once the head passes this fraction of the current page
+	final static float PAGE_PREPARE_THRESHOLD = 0.75f;
+	// pre-touch granularity, os page size
+	final static int PAGE_PRETOUCH_STRIDE = 4 * 1024;
+	// keeps pre-touch reads from being optimized away
+	static volatile byte preTouchSink;
+	
 	// directory to persist map data
 	String mapFileDirectory; // equals mapDir + mapName
 	
 	String mapDir;
 	String mapName;
 	
+	final BigConfig config;
+	// time source of created times and bucket expirations
+	final Clock clock;
+	
+	// page geometry of this map, taken from the config for a new map, or from the meta data on reopen
+	int indexItemsPerPageBits;
+	int indexPageSize;
+	int dataPageSize;
+	// a slot can't span data pages
+	int maxDataSlotLength;
+	// meta data version found on disk before upgrade
+	int loadedMetaDataVersion;
+	
 	// factory for index page
 	IMappedPageFactory indexPageFactory; 
 	// factory for data page
@@ -86,6 +139,16 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 	long headDataPageIndex;
 	// head offset of the data page, this is the to be appended data offset
 	int headDataItemOffset;
+	// number of new allocations since the last meta data checkpoint, guarded by append lock
+	int uncheckpointedCount;
+	
+	// single background thread mapping the next data and index pages ahead of the head
+	ExecutorService pagePreparer;
+	// last data and index page handed to the preparer, guarded by append lock
+	long preparedDataPageIndex = -1L;
+	long preparedIndexPageIndex = -1L;
+	// bumped by removeAll so stale prepare tasks don't recreate deleted page files
+	volatile int pageGeneration;
 	
 	// lock for appending state management
 	final Lock appendLock = new ReentrantLock();
@@ -122,6 +185,37 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 	NavigableSet<Integer> freeEntryIndexSet;
 	FreeEntry[] freeEntries;
 	
+	// page tails available for new allocations, guarded by append lock
+	NavigableSet<PageTail> pageTails;
+	// total size of page tails not filled yet
+	AtomicLong totalPageTailWastedSize = new AtomicLong();
+	
+	// data pages of expiry buckets by page index, guarded by append lock
+	Map<Long, BucketPage> bucketPages;
+	// page of each expiry bucket entries are appended to, guarded by append lock
+	Map<Long, BucketPage> bucketHeads;
+	// index items of deleted bucket pages, reused by later bucketed allocations, guarded by append lock
+	long[] freeIndexItems;
+	int freeIndexItemCount;
+	// highest data page index handed out to the head or to an expiry bucket, guarded by append lock
+	long lastDataPageIndex;
+	// data page files found on init, reload tells the entries of deleted bucket pages by them
+	Set<Long> existingDataPageIndexes;
+	// total number of bucket pages deleted
+	AtomicLong totalDeletedBucketPageCounter = new AtomicLong();
+	
+	public int getIndexItemsPerPageBits() {
+		return this.indexItemsPerPageBits;
+	}
+	
+	public int getDataPageSize() {
+		return this.dataPageSize;
+	}
+	
+	public int getMaxDataSlotLength() {
+		return this.maxDataSlotLength;
+	}
+	
 	// for test
 	public NavigableSet<Integer> getFreeEntryIndexSet() {
 		return this.freeEntryIndexSet;
@@ -132,6 +226,28 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 		return this.getTotalUsedSlotSize() - this.totalRealUsedSlotSize.get();
 	}
 	
+	@Override
+	public long getTotalPageTailWastedSize() {
+		return this.totalPageTailWastedSize.get();
+	}
+	
+	// Get total number of expiry bucket pages deleted
+	public long getTotalDeletedBucketPageCounter() {
+		return this.totalDeletedBucketPageCounter.get();
+	}
+	
+	@Override
+	public long getDataPageReadBytes() {
+		IMappedPageFactory pageFactory = this.dataPageFactory;
+		return pageFactory instanceof FileChannelPageFactoryImpl ? ((FileChannelPageFactoryImpl)pageFactory).getReadBytes() : 0L;
+	}
+	
+	@Override
+	public long getDataPageWriteBytes() {
+		IMappedPageFactory pageFactory = this.dataPageFactory;
+		return pageFactory instanceof FileChannelPageFactoryImpl ? ((FileChannelPageFactoryImpl)pageFactory).getWriteBytes() : 0L;
+	}
+	
 	@Override
 	public long getTotalRealUsedSlotSize() {
 		return this.totalRealUsedSlotSize.get();
@@ -199,9 +315,19 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 
 	
 	public MapEntryFactoryImpl(String mapDir, String mapName) throws IOException {
+		this(mapDir, mapName, new BigConfig());
+	}
+	
+	public MapEntryFactoryImpl(String mapDir, String mapName, BigConfig config) throws IOException {
+		this(mapDir, mapName, config, config.getClock() != null ? config.getClock() : Clock.SYSTEM);
+	}
+	
+	public MapEntryFactoryImpl(String mapDir, String mapName, BigConfig config, Clock clock) throws IOException {
 		
 		this.mapDir = mapDir;
 		this.mapName = mapName;
+		this.config = config;
+		this.clock = clock;
 		this.mapFileDirectory = mapDir;
 		if (!this.mapFileDirectory.endsWith(File.separator)) {
 			this.mapFileDirectory += File.separator;
@@ -215,31 +341,65 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 		}
 		
 		this.commonInit();
+		
+		final String threadName = mapName + "_pagePreparer";
+		this.pagePreparer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, threadName);
+				t.setDaemon(true);
+				return t;
+			}
+		});
 	}
 	
 	void commonInit() throws IOException {
-		// initialize page factories
-		indexPageFactory = new MappedPageFactoryImpl(INDEX_PAGE_SIZE, this.mapFileDirectory + INDEX_PAGE_FOLDER);
-		dataPageFactory = new MappedPageFactoryImpl(DATA_PAGE_SIZE, this.mapFileDirectory + DATA_PAGE_FOLDER);
-		metaPageFactory = new MappedPageFactoryImpl(META_DATA_PAGE_SIZE, this.mapFileDirectory + META_DATA_PAGE_FOLDER);
+		// meta data goes first, it tells the geometry of the other pages
+		metaPageFactory = newPageFactory(META_DATA_PAGE_SIZE, META_DATA_PAGE_FOLDER, 0);
 		
 		// initialize array indexes
 		initArrayIndex();
 		
+		// initialize page geometry
+		initGeometry();
+		
+		// initialize page factories
+		indexPageFactory = newPageFactory(this.indexPageSize, INDEX_PAGE_FOLDER, config.getMaxMappedIndexPages());
+		if (config.getStorageMode() == StorageMode.FILE_CHANNEL) {
+			dataPageFactory = new FileChannelPageFactoryImpl(this.dataPageSize, this.mapFileDirectory + DATA_PAGE_FOLDER);
+		} else {
+			dataPageFactory = newPageFactory(this.dataPageSize, DATA_PAGE_FOLDER, config.getMaxMappedDataPages());
+		}
+		
 		// initialize data page indexes
 		initDataPageIndex();
+		preparedDataPageIndex = -1L;
+		preparedIndexPageIndex = -1L;
 		
 		initFreeEntry();
 		
 		initCounters();
 	}
 	
+	// off-heap pages can't be evicted, they hold the only copy of the data
+	IMappedPageFactory newPageFactory(int pageSize, String folder, int maxCachedPages) {
+		if (config.getStorageMode() == StorageMode.OFFHEAP) {
+			return new OffHeapPageFactoryImpl(pageSize, this.mapFileDirectory + folder);
+		}
+		return new MappedPageFactoryImpl(pageSize, this.mapFileDirectory + folder, maxCachedPages);
+	}
+	
 	void initFreeEntry() {
 		freeEntryIndexSet = new ConcurrentSkipListSet<Integer>(); // size sorted free list
 		freeEntries = new FreeEntry[FREE_ENTRY_ARRAY_SIZE];
 		for(int i = 0; i < FREE_ENTRY_ARRAY_SIZE; i++) {
 			freeEntries[i] = new FreeEntry();
 		}
+		pageTails = new TreeSet<PageTail>();
+		bucketPages = new HashMap<Long, BucketPage>();
+		bucketHeads = new HashMap<Long, BucketPage>();
+		freeIndexItems = new long[16];
+		freeIndexItemCount = 0;
 	}
 	
 	void initCounters() {
@@ -253,32 +413,108 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 		totalSlotSize = new AtomicLong();
 		// total number of slot size really used
 		totalRealUsedSlotSize = new AtomicLong();
+		// total size of page tails not filled yet
+		totalPageTailWastedSize = new AtomicLong();
 		
 		// counters
 		totalAcquireCounter = new AtomicLong();
 		totalReleaseCounter = new AtomicLong();
 		totalExactMatchReuseCounter = new AtomicLong();
 		totalApproximateMatchReuseCounter = new AtomicLong();
+		totalDeletedBucketPageCounter = new AtomicLong();
 	}
 	
 	// find out array head/tail from the meta data
 	void initArrayIndex() throws IOException {
 		IMappedPage metaDataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
-		ByteBuffer metaBuf = metaDataPage.getLocal(0);
-		long head = metaBuf.getLong();
-		long tail = metaBuf.getLong();
+		long head = metaDataPage.getLong(META_DATA_ARRAY_HEAD_INDEX_OFFSET);
+		long tail = metaDataPage.getLong(META_DATA_ARRAY_TAIL_INDEX_OFFSET);
+		
+		this.metaPageFactory.releasePage(metaDataPage);
 		
 		arrayHeadIndex.set(head);
 		arrayTailIndex.set(tail);
 	}
 	
-	// find out data page head index and offset
+	// find out page geometry, the one recorded in the meta data wins over the config
+	void initGeometry() throws IOException {
+		IMappedPage metaDataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
+		int version = metaDataPage.getInt(META_DATA_VERSION_OFFSET);
+		this.loadedMetaDataVersion = version;
+		
+		if (version == 0) {
+			if (this.isEmpty()) { // new map
+				this.indexItemsPerPageBits = config.getIndexItemsPerPageBits();
+				this.dataPageSize = config.getDataPageSize();
+				if (this.indexItemsPerPageBits < MIN_INDEX_ITEMS_PER_PAGE_BITS || this.indexItemsPerPageBits > MAX_INDEX_ITEMS_PER_PAGE_BITS) {
+					throw new IllegalArgumentException("index items per page bits " + this.indexItemsPerPageBits + " out of range [" + 
+							MIN_INDEX_ITEMS_PER_PAGE_BITS + ", " + MAX_INDEX_ITEMS_PER_PAGE_BITS + "]");
+				}
+				if (this.dataPageSize < MIN_DATA_PAGE_SIZE) {
+					throw new IllegalArgumentException("data page size " + this.dataPageSize + " < min data page size " + MIN_DATA_PAGE_SIZE);
+				}
+			} else { // legacy map, created with the default geometry
+				this.indexItemsPerPageBits = DEFAULT_INDEX_ITEMS_PER_PAGE_BITS;
+				this.dataPageSize = DEFAULT_DATA_PAGE_SIZE;
+			}
+			metaDataPage.putInt(META_DATA_VERSION_OFFSET, META_DATA_VERSION);
+			metaDataPage.putInt(META_DATA_INDEX_ITEMS_PER_PAGE_BITS_OFFSET, this.indexItemsPerPageBits);
+			metaDataPage.putInt(META_DATA_INDEX_ITEM_LENGTH_OFFSET, INDEX_ITEM_LENGTH);
+			metaDataPage.putInt(META_DATA_DATA_PAGE_SIZE_OFFSET, this.dataPageSize);
+			metaDataPage.setDirty(true);
+		} else if (version <= META_DATA_VERSION) {
+			if (metaDataPage.getInt(META_DATA_INDEX_ITEM_LENGTH_OFFSET) != INDEX_ITEM_LENGTH) {
+				throw new IOException("unsupported index item length " + metaDataPage.getInt(META_DATA_INDEX_ITEM_LENGTH_OFFSET) + " in map " + this.mapFileDirectory);
+			}
+			this.indexItemsPerPageBits = metaDataPage.getInt(META_DATA_INDEX_ITEMS_PER_PAGE_BITS_OFFSET);
+			this.dataPageSize = metaDataPage.getInt(META_DATA_DATA_PAGE_SIZE_OFFSET);
+			if (this.indexItemsPerPageBits != config.getIndexItemsPerPageBits() || this.dataPageSize != config.getDataPageSize()) {
+				logger.warn("Map " + this.mapFileDirectory + " was created with index items per page bits " + this.indexItemsPerPageBits + 
+						" and data page size " + this.dataPageSize + ", the configured geometry is ignored.");
+			}
+			metaDataPage.putInt(META_DATA_VERSION_OFFSET, META_DATA_VERSION);
+			metaDataPage.setDirty(true);
+		} else {
+			throw new IOException("unsupported meta data version " + version + " in map " + this.mapFileDirectory);
+		}
+		this.metaPageFactory.releasePage(metaDataPage);
+		
+		this.indexPageSize = INDEX_ITEM_LENGTH << this.indexItemsPerPageBits;
+		this.maxDataSlotLength = Math.min(MAX_DATA_SLOT_LENGTH, this.dataPageSize);
+	}
+	
+	// find out data page head index and offset, array head is recovered from the last checkpoint first
 	void initDataPageIndex() throws IOException {
 
+		IMappedPage metaDataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
+		
+		if (this.loadedMetaDataVersion >= 2) {
+			headDataPageIndex = metaDataPage.getLong(META_DATA_HEAD_DATA_PAGE_INDEX_OFFSET);
+			headDataItemOffset = metaDataPage.getInt(META_DATA_HEAD_DATA_ITEM_OFFSET_OFFSET);
+			
+			// allocations after the checkpoint are found by scanning forward while items are allocated,
+			// the data head is the furthest end of their slots
+			Set<Long> existingIndexPages = this.indexPageFactory.getExistingBackFileIndexSet();
+			long index = this.arrayHeadIndex.get();
+			while(index < Long.MAX_VALUE && existingIndexPages.contains(Calculator.div(index, this.indexItemsPerPageBits))) {
+				MapEntry me = this.findMapEntryByIndex(index);
+				if (!me.isAllocated()) break;
+				
+				long dataPageIndex = me.getDataPageIndex();
+				int dataItemEnd = me.getDataSlotOffset() + me.getSlotSize();
+				if (!me.isBucketed() && (dataPageIndex > headDataPageIndex || (dataPageIndex == headDataPageIndex && dataItemEnd > headDataItemOffset))) {
+					headDataPageIndex = dataPageIndex;
+					headDataItemOffset = dataItemEnd;
+				}
+				index++;
+			}
+			this.arrayHeadIndex.set(index);
+		}
+		
 		if (this.isEmpty()) {
 			headDataPageIndex = 0L;
 			headDataItemOffset = 0;
-		} else {
+		} else if (this.loadedMetaDataVersion < 2) { // older maps never reuse page tails, the last index item points to the data head
 			IMappedPage previousIndexPage = null;
 			long previousIndexPageIndex = -1;
 			
@@ -286,17 +522,36 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 			if (previousIndex < 0) {
 				previousIndex = Long.MAX_VALUE; // wrap
 			}
-			previousIndexPageIndex = Calculator.div(previousIndex, INDEX_ITEMS_PER_PAGE_BITS); // shift optimization
+			previousIndexPageIndex = Calculator.div(previousIndex, this.indexItemsPerPageBits); // shift optimization
 			previousIndexPage = this.indexPageFactory.acquirePage(previousIndexPageIndex);
-			int previousIndexPageOffset = (int) (Calculator.mul(Calculator.mod(previousIndex, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
-			ByteBuffer previousIndexItemBuffer = previousIndexPage.getLocal(previousIndexPageOffset);
-			long previousDataPageIndex = previousIndexItemBuffer.getLong();
-			int previousDataItemOffset = previousIndexItemBuffer.getInt();
-			int perviousDataItemLength = previousIndexItemBuffer.getInt();
+			int previousIndexPageOffset = (int) (Calculator.mul(Calculator.mod(previousIndex, this.indexItemsPerPageBits), INDEX_ITEM_LENGTH_BITS));
+			long previousDataPageIndex = previousIndexPage.getLong(previousIndexPageOffset + MapEntry.INDEX_ITEM_DATA_PAGE_INDEX_OFFSET);
+			int previousDataItemOffset = previousIndexPage.getInt(previousIndexPageOffset + MapEntry.INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET);
+			int perviousDataItemLength = previousIndexPage.getInt(previousIndexPageOffset + MapEntry.INDEX_ITEM_DATA_SLOT_LENGTH_OFFSET);
+			this.indexPageFactory.releasePage(previousIndexPage);
 			
 			headDataPageIndex = previousDataPageIndex;
 			headDataItemOffset = previousDataItemOffset + perviousDataItemLength;
 		}
+		this.metaPageFactory.releasePage(metaDataPage);
+		
+		// expiry bucket pages may lie beyond the head, restore moves the last page past them. Files above
+		// both, mapped ahead by the page preparer but never used, are taken again by the next pages.
+		this.existingDataPageIndexes = this.dataPageFactory.getExistingBackFileIndexSet();
+		this.lastDataPageIndex = headDataPageIndex;
+		
+		this.checkpoint();
+	}
+	
+	// persist array and data heads to the meta data, caller must hold the append lock or have exclusive access
+	void checkpoint() throws IOException {
+		IMappedPage metaDataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
+		metaDataPage.putLong(META_DATA_ARRAY_HEAD_INDEX_OFFSET, this.arrayHeadIndex.get());
+		metaDataPage.putLong(META_DATA_HEAD_DATA_PAGE_INDEX_OFFSET, this.headDataPageIndex);
+		metaDataPage.putInt(META_DATA_HEAD_DATA_ITEM_OFFSET_OFFSET, this.headDataItemOffset);
+		metaDataPage.setDirty(true);
+		this.metaPageFactory.releasePage(metaDataPage);
+		this.uncheckpointedCount = 0;
 	}
 	
 	boolean isEmpty() {
@@ -308,6 +563,11 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 		}
 	}
 	
+	// index items below the head have been handed out, the rest were never written
+	long getArrayHeadIndex() {
+		return this.arrayHeadIndex.get();
+	}
+	
 	boolean isFull() {
 		try {
 			arrayReadLock.lock();
@@ -321,21 +581,39 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 	}
 
 	public MapEntry acquire(int length) throws IOException {
+		return this.acquire(length, 0L);
+	}
+	
+	// with expiry buckets enabled, an entry with a fixed expiration time beyond the current bucket always goes to its
+	// bucket page, never to a free slot. One due within the current bucket or already past takes a free slot, its page
+	// could otherwise be deleted by a purge running before the entry is released.
+	private MapEntry acquire(int length, long expiryTime) throws IOException {
 		// length check
 		int fIndex = mapLengthToFreeEntryArrayIndex(length);
-		if (fIndex < 0 || fIndex >= FREE_ENTRY_ARRAY_SIZE) throw new IllegalArgumentException(length + " <= 0 or > max allowed data slot length " + MAX_DATA_SLOT_LENGTH);
+		if (fIndex < 0 || length > this.maxDataSlotLength) throw new IllegalArgumentException(length + " <= 0 or > max allowed data slot length " + this.maxDataSlotLength);
 		
 		// metrics
 		this.totalRealUsedSlotSize.addAndGet(length);
 		this.totalAcquireCounter.incrementAndGet();
 		
+		if (expiryTime > 0 && config.getExpiryBucketMs() > 0 &&
+				expiryTime / config.getExpiryBucketMs() > this.clock.currentTimeMillis() / config.getExpiryBucketMs()) {
+			MapEntry bucketEntry = this.acquireNew(length, expiryTime);
+			bucketEntry.MarkInUse();
+			bucketEntry.clearChunkMarks();
+			bucketEntry.markBucketed();
+			bucketEntry.putCreatedTime(this.clock.currentTimeMillis());
+			return bucketEntry;
+		}
+		
 		// find exact match
 		MapEntry freeEntry = findFreeEntryByLength(fIndex, length);
 
 		if (freeEntry != null) {
 			this.totalExactMatchReuseCounter.incrementAndGet();
 			freeEntry.MarkInUse();
-			freeEntry.putCreatedTime(System.currentTimeMillis());
+			freeEntry.clearChunkMarks();
+			freeEntry.putCreatedTime(this.clock.currentTimeMillis());
 			return freeEntry;
 		}
 		
@@ -350,25 +628,76 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 				if (freeEntry != null) {
 					this.totalApproximateMatchReuseCounter.incrementAndGet();
 					freeEntry.MarkInUse();
-					freeEntry.putCreatedTime(System.currentTimeMillis());
+					freeEntry.clearChunkMarks();
+					freeEntry.putCreatedTime(this.clock.currentTimeMillis());
 					return freeEntry;
 				}
 			}
 		}
 		
 		// acquire new entry
-		freeEntry = this.acquireNew(length);
+		freeEntry = this.acquireNew(length, 0L);
 		freeEntry.MarkInUse();
-		freeEntry.putCreatedTime(System.currentTimeMillis());
+		freeEntry.clearChunkMarks();
+		freeEntry.putCreatedTime(this.clock.currentTimeMillis());
 		return freeEntry;
 	}
 	
+	public MapEntry acquire(int keyLength, int valueLength) throws IOException {
+		return this.acquire(keyLength, valueLength, 0L);
+	}
+	
+	// chunked entries are never bucketed
+	public MapEntry acquire(int keyLength, int valueLength, long expiryTime) throws IOException {
+		if (keyLength <= 0 || valueLength <= 0) throw new IllegalArgumentException("key length " + keyLength + " or value length " + valueLength + " <= 0");
+		
+		// fast path, key and value fit in one slot
+		if ((long)keyLength + valueLength <= this.maxDataSlotLength) {
+			MapEntry mapEntry = this.acquire(keyLength + valueLength, expiryTime);
+			mapEntry.putKeyLength(keyLength);
+			mapEntry.putValueLength(valueLength);
+			return mapEntry;
+		}
+		
+		return this.acquireChunked(keyLength, valueLength);
+	}
+	
+	// the slot of a chunked entry holds the key and the extent list, the value goes to chunk slots
+	MapEntry acquireChunked(int keyLength, int valueLength) throws IOException {
+		int chunkCount = (int)(((long)valueLength + this.maxDataSlotLength - 1) / this.maxDataSlotLength);
+		long headerLength = (long)keyLength + (long)chunkCount * MapEntry.CHUNK_EXTENT_LENGTH;
+		if (headerLength > this.maxDataSlotLength) throw new IllegalArgumentException("key length " + keyLength + " is too large for a chunked entry");
+		
+		MapEntry header = this.acquire((int)headerLength);
+		header.putKeyLength(keyLength);
+		header.putValueLength(valueLength);
+		header.putChunkCount(0);
+		header.markChunked();
+		
+		int remaining = valueLength;
+		try {
+			for(int i = 0; i < chunkCount; i++) {
+				int chunkLength = Math.min(remaining, this.maxDataSlotLength);
+				MapEntry chunk = this.acquire(chunkLength);
+				chunk.putKeyLength(0);
+				chunk.putValueLength(chunkLength);
+				chunk.markChunk();
+				header.putChunkExtent(i, chunk);
+				header.putChunkCount(i + 1);
+				remaining -= chunkLength;
+			}
+		} catch (IOException e) {
+			this.release(header); // give back the chunks acquired so far
+			throw e;
+		}
+		return header;
+	}
+	
 	public MapEntry findMapEntryByIndex(long index) throws IOException {
-		long indexPageIndex = Calculator.div(index, INDEX_ITEMS_PER_PAGE_BITS);
-		IMappedPage indexPage = indexPageFactory.acquirePage(indexPageIndex);
-		int indexItemOffset = (int)(Calculator.mul(Calculator.mod(index, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
+		long indexPageIndex = Calculator.div(index, this.indexItemsPerPageBits);
+		int indexItemOffset = (int)(Calculator.mul(Calculator.mod(index, this.indexItemsPerPageBits), INDEX_ITEM_LENGTH_BITS));
 		
-		return new MapEntry(index, indexItemOffset, indexPage, this.dataPageFactory);
+		return new MapEntry(index, indexPageIndex, indexItemOffset, this.indexPageFactory, this.dataPageFactory);
 	}
 	
 	private MapEntry findFreeEntryByLength(int index, int realLength) throws IOException {
@@ -405,11 +734,10 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 					
 					// reuse the free entry
 					// remove the free slot from the free list
-					long indexPageIndex = Calculator.div(p.index, INDEX_ITEMS_PER_PAGE_BITS);
-					IMappedPage indexPage = indexPageFactory.acquirePage(indexPageIndex);
-					int indexItemOffset = (int)(Calculator.mul(Calculator.mod(p.index, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
+					long indexPageIndex = Calculator.div(p.index, this.indexItemsPerPageBits);
+					int indexItemOffset = (int)(Calculator.mul(Calculator.mod(p.index, this.indexItemsPerPageBits), INDEX_ITEM_LENGTH_BITS));
 					
-					MapEntry mapEntry = new MapEntry(p.index, realLength, indexItemOffset, indexPage, this.dataPageFactory);
+					MapEntry mapEntry = new MapEntry(p.index, realLength, indexPageIndex, indexItemOffset, this.indexPageFactory, this.dataPageFactory);
 					
 					// update freeEntryIndexSet if there is no free slot with specific size
 					if (freeEntry.count == 0) {
@@ -427,15 +755,66 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 	void restore(MapEntry me) throws IOException {
 		this.totalEntryCount.incrementAndGet();
 		this.totalAcquireCounter.incrementAndGet();
+		if (me.isBucketed()) {
+			this.restoreBucketed(me);
+			return;
+		}
 		this.totalRealUsedSlotSize.addAndGet(me.getRealEntryLength());
 		this.totalSlotSize.addAndGet(me.getSlotSize());
 		if (me.isReleased()) {
-			this.release(me);
+			this.releaseSlot(me); // chunks are restored on their own
+		}
+	}
+	
+	// rebuild the bucket pages, entries expired while the map was closed are released here
+	private void restoreBucketed(MapEntry me) throws IOException {
+		long pageIndex = me.getDataPageIndex();
+		// even the page of a deleted bucket, the index item still points to it and a new page must not alias it
+		this.lastDataPageIndex = Math.max(this.lastDataPageIndex, pageIndex);
+		BucketPage page = this.bucketPages.get(pageIndex);
+		if (page == null) {
+			if (!this.existingDataPageIndexes.contains(pageIndex)) { // deleted with its bucket
+				if (me.isInUse()) {
+					me.markReleased();
+				}
+				this.pushFreeIndexItem(me.getIndex());
+				return;
+			}
+			page = new BucketPage(pageIndex, -1L); // restored pages take no more entries
+			this.bucketPages.put(pageIndex, page);
+		}
+		long expiryTime = me.getExpiryTime();
+		page.add(me.getIndex(), me.getSlotSize(), expiryTime);
+		this.totalSlotSize.addAndGet(me.getSlotSize());
+		if (me.isInUse() && expiryTime < this.clock.currentTimeMillis()) {
+			me.markReleased();
+		}
+		if (me.isInUse()) {
+			this.totalRealUsedSlotSize.addAndGet(me.getRealEntryLength());
+		} else {
+			this.totalReleaseCounter.incrementAndGet();
 		}
 	}
 	
-	// release a slot to the free list for reuse later
+	// release a slot, and the chunk slots of a chunked entry, to the free list for reuse later,
+	// the slot of a bucketed entry is not reused, it goes away with its page
 	public void release(MapEntry me) throws IOException {
+		me.bumpGeneration(); // before any of its slots can be reused, streams over the value see it
+		if (me.isBucketed()) {
+			this.totalRealUsedSlotSize.addAndGet(me.getRealEntryLength() * -1);
+			this.totalReleaseCounter.incrementAndGet();
+			me.markReleased();
+			return;
+		}
+		if (me.isChunked()) {
+			for(MapEntry.ChunkExtent extent : me.getChunkExtents()) {
+				this.releaseSlot(this.findMapEntryByIndex(extent.index));
+			}
+		}
+		this.releaseSlot(me);
+	}
+	
+	private void releaseSlot(MapEntry me) throws IOException {
 		int slotSize = me.getSlotSize();
 		int index = this.mapLengthToFreeEntryArrayIndex(slotSize);
 		FreeEntry freeEntry = freeEntries[index];
@@ -466,13 +845,15 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 		}
 	}
 	
-	private MapEntry acquireNew(int length) throws IOException {
+	// an expiry time > 0 puts the slot into the page of its expiry bucket
+	private MapEntry acquireNew(int length, long expiryTime) throws IOException {
 		MapEntry mapEntry = null;
 		try {
 			arrayReadLock.lock();
 			IMappedPage toAppendIndexPage = null;
 			long toAppendIndexPageIndex = -1L;
 			long toAppendDataPageIndex = -1L;
+			int toAppendDataItemOffset = -1;
 			
 			long toAppendArrayIndex = -1L;
 			
@@ -483,53 +864,111 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 					throw new IOException("ring space of java long type used up, the end of the world!!!");
 				}
 				
-				// prepare the data pointer
-				if (this.headDataItemOffset + length > DATA_PAGE_SIZE) { // not enough space
-					if (this.headDataPageIndex == Long.MAX_VALUE) {
-						this.headDataPageIndex = 0L; // wrap
-					} else {
-						this.headDataPageIndex++;
+				// prepare the data pointer, best fit in tails left behind by previous page rolls goes first
+				PageTail pageTail = this.pageTails.isEmpty() || expiryTime > 0 ? null : this.pageTails.ceiling(new PageTail(Long.MIN_VALUE, 0, length));
+				if (expiryTime > 0) {
+					long bucket = expiryTime / config.getExpiryBucketMs();
+					BucketPage page = this.bucketHeads.get(bucket);
+					if (page == null || page.offset + length > this.dataPageSize) {
+						// the rest of a full bucket page is left unused, it goes away with the page
+						page = new BucketPage(this.nextDataPageIndex(), bucket);
+						this.bucketHeads.put(bucket, page);
+						this.bucketPages.put(page.pageIndex, page);
 					}
-					this.headDataItemOffset = 0;
+					
+					toAppendDataPageIndex = page.pageIndex;
+					toAppendDataItemOffset = page.offset;
+					
+					// reserve the space & update to next
+					page.offset += length;
+				} else if (pageTail != null) {
+					this.pageTails.remove(pageTail);
+					
+					toAppendDataPageIndex = pageTail.pageIndex;
+					toAppendDataItemOffset = pageTail.offset;
+					
+					// reserve the space & shrink the tail
+					pageTail.offset += length;
+					pageTail.length -= length;
+					if (pageTail.length > 0) {
+						this.pageTails.add(pageTail);
+					}
+					this.totalPageTailWastedSize.addAndGet(length * -1);
+				} else {
+					if (this.headDataItemOffset + length > this.dataPageSize) { // not enough space
+						// keep the tail of the current page for smaller allocations later
+						int tailLength = this.dataPageSize - this.headDataItemOffset;
+						if (tailLength > 0) {
+							this.pageTails.add(new PageTail(this.headDataPageIndex, this.headDataItemOffset, tailLength));
+							this.totalPageTailWastedSize.addAndGet(tailLength);
+						}
+						
+						this.headDataPageIndex = this.nextDataPageIndex();
+						this.headDataItemOffset = 0;
+					}
+					
+					toAppendDataPageIndex = this.headDataPageIndex;
+					toAppendDataItemOffset  = this.headDataItemOffset;
+					
+					// reserve the space & update to next
+					this.headDataItemOffset += length;
 				}
 				
-				toAppendDataPageIndex = this.headDataPageIndex;
-				int toAppendDataItemOffset  = this.headDataItemOffset;
+				// bucketed entries reuse the index items of deleted bucket pages first
+				boolean reuseIndexItem = expiryTime > 0 && this.freeIndexItemCount > 0;
+				toAppendArrayIndex = reuseIndexItem ? this.freeIndexItems[--this.freeIndexItemCount] : this.arrayHeadIndex.get();
 				
-				toAppendArrayIndex = this.arrayHeadIndex.get();
-				
-				// reserve the space & update to next
-				this.headDataItemOffset += length;
-				
-				toAppendIndexPageIndex = Calculator.div(toAppendArrayIndex, INDEX_ITEMS_PER_PAGE_BITS); // shift optimization
+				toAppendIndexPageIndex = Calculator.div(toAppendArrayIndex, this.indexItemsPerPageBits); // shift optimization
 				toAppendIndexPage = this.indexPageFactory.acquirePage(toAppendIndexPageIndex);
-				int toAppendIndexItemOffset = (int) (Calculator.mul(Calculator.mod(toAppendArrayIndex, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
+				int toAppendIndexItemOffset = (int) (Calculator.mul(Calculator.mod(toAppendArrayIndex, this.indexItemsPerPageBits), INDEX_ITEM_LENGTH_BITS));
 				
 				// update index
-				ByteBuffer toAppendIndexPageBuffer = toAppendIndexPage.getLocal();
-				toAppendIndexPageBuffer.putLong(toAppendIndexItemOffset + MapEntry.INDEX_ITEM_DATA_PAGE_INDEX_OFFSET, toAppendDataPageIndex);
-				toAppendIndexPageBuffer.putInt(toAppendIndexItemOffset + MapEntry.INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET, toAppendDataItemOffset);
-				toAppendIndexPageBuffer.putInt(toAppendIndexItemOffset + MapEntry.INDEX_ITEM_DATA_SLOT_LENGTH_OFFSET, length);
-				long currentTime = System.currentTimeMillis();
-				toAppendIndexPageBuffer.putLong(toAppendIndexItemOffset + MapEntry.INDEX_ITEM_MAP_ENTRY_CREATED_TIME_OFFSET, currentTime);
-				toAppendIndexPage.setDirty(true);
+				try {
+					toAppendIndexPage.putLong(toAppendIndexItemOffset + MapEntry.INDEX_ITEM_DATA_PAGE_INDEX_OFFSET, toAppendDataPageIndex);
+					toAppendIndexPage.putInt(toAppendIndexItemOffset + MapEntry.INDEX_ITEM_DATA_SLOT_OFFSET_OFFSET, toAppendDataItemOffset);
+					toAppendIndexPage.putInt(toAppendIndexItemOffset + MapEntry.INDEX_ITEM_DATA_SLOT_LENGTH_OFFSET, length);
+					long currentTime = this.clock.currentTimeMillis();
+					toAppendIndexPage.putLong(toAppendIndexItemOffset + MapEntry.INDEX_ITEM_MAP_ENTRY_CREATED_TIME_OFFSET, currentTime);
+					toAppendIndexPage.setDirty(true);
+				} finally {
+					this.indexPageFactory.releasePage(toAppendIndexPage);
+				}
 				
-				mapEntry = new MapEntry(toAppendArrayIndex, length, toAppendIndexItemOffset, toAppendIndexPage, this.dataPageFactory);
+				mapEntry = new MapEntry(toAppendArrayIndex, length, toAppendIndexPageIndex, toAppendIndexItemOffset, this.indexPageFactory, this.dataPageFactory);
 				mapEntry.MarkAllocated();
 				
 				// metrics
-				this.totalEntryCount.incrementAndGet();
 				this.totalSlotSize.addAndGet(length);
+				if (expiryTime > 0) {
+					this.bucketPages.get(toAppendDataPageIndex).add(toAppendArrayIndex, length, expiryTime);
+				}
 				
-				// advance the head
-				this.arrayHeadIndex.incrementAndGet();
+				if (!reuseIndexItem) {
+					this.totalEntryCount.incrementAndGet();
+					
+					// advance the head
+					this.arrayHeadIndex.incrementAndGet();
+					
+					// update meta data once in a while, reload recovers the rest from the index
+					if (++this.uncheckpointedCount >= META_DATA_CHECKPOINT_INTERVAL) {
+						this.checkpoint();
+					}
+				}
 				
-				// update meta data
-				IMappedPage metaDataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
-				ByteBuffer metaDataBuf = metaDataPage.getLocal(0);
-				metaDataBuf.putLong(this.arrayHeadIndex.get());
-				//metaDataBuf.putLong(this.arrayTailIndex.get());
-				metaDataPage.setDirty(true);
+				// map the next pages ahead, so the roll doesn't pay for the mapping under the append lock
+				if (this.headDataItemOffset > this.dataPageSize * PAGE_PREPARE_THRESHOLD && this.lastDataPageIndex != Long.MAX_VALUE
+						&& this.preparedDataPageIndex < this.lastDataPageIndex + 1) {
+					this.preparedDataPageIndex = this.lastDataPageIndex + 1;
+					this.preparePage(this.dataPageFactory, this.preparedDataPageIndex);
+				}
+				long nextArrayIndex = this.arrayHeadIndex.get();
+				if (Calculator.mod(nextArrayIndex, this.indexItemsPerPageBits) > (1 << this.indexItemsPerPageBits) * PAGE_PREPARE_THRESHOLD) {
+					long nextIndexPageIndex = Calculator.div(nextArrayIndex, this.indexItemsPerPageBits) + 1;
+					if (this.preparedIndexPageIndex < nextIndexPageIndex) {
+						this.preparedIndexPageIndex = nextIndexPageIndex;
+						this.preparePage(this.indexPageFactory, nextIndexPageIndex);
+					}
+				}
 			} finally {
 				appendLock.unlock();
 			}
@@ -542,6 +981,156 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 		return mapEntry;
 	}
 	
+	// the next fresh data page, for the head or an expiry bucket, caller must hold the append lock
+	private long nextDataPageIndex() {
+		if (this.lastDataPageIndex == Long.MAX_VALUE) {
+			this.lastDataPageIndex = 0L; // wrap
+		} else {
+			this.lastDataPageIndex++;
+		}
+		return this.lastDataPageIndex;
+	}
+	
+	private void pushFreeIndexItem(long index) {
+		if (this.freeIndexItemCount == this.freeIndexItems.length) {
+			this.freeIndexItems = Arrays.copyOf(this.freeIndexItems, this.freeIndexItemCount * 2);
+		}
+		this.freeIndexItems[this.freeIndexItemCount++] = index;
+	}
+	
+	/**
+	 * Delete the expiry bucket pages whose entries all expired before the time, the entries must
+	 * have been released by then. Index items of the deleted entries are reused by later bucketed allocations.
+	 * 
+	 * @param time expiration time in ms
+	 * @return number of bucket pages deleted
+	 * @throws IOException exception thrown during the delete operation
+	 */
+	int deleteExpiredBucketPages(long time) throws IOException {
+		List<BucketPage> expiredPages = new ArrayList<BucketPage>();
+		try {
+			arrayReadLock.lock();
+			try {
+				appendLock.lock();
+				if (this.bucketPages.isEmpty()) return 0;
+				
+				Iterator<BucketPage> it = this.bucketPages.values().iterator();
+				while(it.hasNext()) {
+					BucketPage page = it.next();
+					if (page.expiryTime >= time) continue;
+					
+					it.remove();
+					if (this.bucketHeads.get(page.bucket) == page) {
+						this.bucketHeads.remove(page.bucket);
+					}
+					for(int i = 0; i < page.indexCount; i++) {
+						this.pushFreeIndexItem(page.indexes[i]);
+					}
+					this.totalSlotSize.addAndGet(page.slotSize * -1);
+					expiredPages.add(page);
+				}
+			} finally {
+				appendLock.unlock();
+			}
+			
+			// the file deletes don't stall appends, no allocation goes to an unlinked page any more, and the
+			// array read lock keeps removeAll from starting over in between
+			for(BucketPage page : expiredPages) {
+				this.dataPageFactory.deletePage(page.pageIndex);
+				this.totalDeletedBucketPageCounter.incrementAndGet();
+			}
+		} finally {
+			arrayReadLock.unlock();
+		}
+		return expiredPages.size();
+	}
+	
+	// map, and optionally fault in by reading, a page in background, failures are left to the foreground acquire
+	private void preparePage(final IMappedPageFactory pageFactory, final long pageIndex) {
+		final int generation = this.pageGeneration;
+		try {
+			this.pagePreparer.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						arrayReadLock.lock();
+						if (generation != pageGeneration) return;
+						IMappedPage page = pageFactory.acquirePage(pageIndex);
+						try {
+							// read only, the page may be handed out and written in the meantime,
+							// writing a byte back could undo a foreground write
+							if (config.isPreTouchPages() && !(pageFactory instanceof FileChannelPageFactoryImpl)) {
+								byte sink = 0;
+								for(int i = 0; i < pageFactory.getPageSize(); i += PAGE_PRETOUCH_STRIDE) {
+									sink ^= page.get(i);
+								}
+								preTouchSink = sink;
+							}
+						} finally {
+							pageFactory.releasePage(page);
+						}
+					} catch (Throwable t) {
+						logger.warn("Fail to prepare page " + pageIndex + " in " + pageFactory.getPageDir(), t);
+					} finally {
+						arrayReadLock.unlock();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// closed
+		}
+	}
+	
+	/**
+	 * Unused end of a data page, left behind when an allocation did not fit and the head moved to the next page.
+	 * Ordered by length then page index for best fit lookup.
+	 */
+	private static class PageTail implements Comparable<PageTail> {
+		long pageIndex;
+		int offset;
+		int length;
+		
+		PageTail(long pageIndex, int offset, int length) {
+			this.pageIndex = pageIndex;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int compareTo(PageTail o) {
+			if (this.length != o.length) return this.length < o.length ? -1 : 1;
+			if (this.pageIndex != o.pageIndex) return this.pageIndex < o.pageIndex ? -1 : 1;
+			return 0;
+		}
+	}
+	
+	/**
+	 * Data page holding the entries of one expiry bucket only, deleted as a whole once all of them expired.
+	 */
+	private static class BucketPage {
+		final long pageIndex;
+		final long bucket; // -1 for pages restored on reload
+		int offset;
+		long slotSize;
+		long expiryTime; // latest expiration time of the entries
+		long[] indexes = new long[16]; // index items of the entries
+		int indexCount;
+		
+		BucketPage(long pageIndex, long bucket) {
+			this.pageIndex = pageIndex;
+			this.bucket = bucket;
+		}
+		
+		void add(long index, int length, long expiryTime) {
+			if (this.indexCount == this.indexes.length) {
+				this.indexes = Arrays.copyOf(this.indexes, this.indexCount * 2);
+			}
+			this.indexes[this.indexCount++] = index;
+			this.slotSize += length;
+			this.expiryTime = Math.max(this.expiryTime, expiryTime);
+		}
+	}
+	
 	private static class FreeEntry {
 		FreeNode first;
 		volatile int count = 0;
@@ -559,6 +1148,7 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 		try {
 			arrayWriteLock.lock();
 			
+			this.pageGeneration++;
 			this.indexPageFactory.deleteAllPages();
 			this.dataPageFactory.deleteAllPages();
 			this.metaPageFactory.deleteAllPages();
@@ -583,9 +1173,18 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
 
 	@Override
 	public void close() throws IOException {
+		if (this.pagePreparer != null) {
+			this.pagePreparer.shutdown();
+			try {
+				this.pagePreparer.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
         try {
             arrayWriteLock.lock();
             if (this.metaPageFactory != null) {
+                    this.checkpoint();
                     this.metaPageFactory.releaseCachedPages();
             }
             if (this.indexPageFactory != null) {
@@ -632,6 +1231,11 @@ public class MapEntryFactoryImpl implements IMapEntryFactory {
         try {
             arrayWriteLock.lock();
             if (this.metaPageFactory != null) {
+                    try {
+                        this.checkpoint();
+                    } catch (IOException e) {
+                        logger.error("Fail to checkpoint meta data of map " + this.mapFileDirectory, e);
+                    }
                     this.metaPageFactory.flush();
             }
             if (this.indexPageFactory != null) {
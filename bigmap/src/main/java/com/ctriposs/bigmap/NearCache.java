@@ -0,0 +1,179 @@
+package com.ctriposs.bigmap;
+
+import com.ctriposs.bigmap.BigConcurrentHashMapImpl.HashEntry;
+import com.ctriposs.bigmap.utils.FrequencySketch;
+
+/**
+ * Byte bounded on-heap cache of decoded keys and values with W-TinyLFU policy.
+ *
+ * New entries go to a small LRU window, entries leaving the window compete with the
+ * LRU victim of the main region and the one seen less often according to the frequency
+ * sketch is dropped. The main region is a segmented LRU, entries hit in probation move
+ * to protected.
+ *
+ * Cached copies are attached to their hash entries, so there is no lookup table.
+ * Not thread safe, one instance per segment is guarded by the segment lock.
+ *
+ * @author bulldog
+ *
+ */
+class NearCache {
+
+	static final int WINDOW = 0;
+	static final int PROBATION = 1;
+	static final int PROTECTED = 2;
+
+	// rough average key and value size used to size the frequency sketch
+	static final int SKETCH_BYTES_PER_ITEM = 64;
+
+	static final class Node {
+		final HashEntry entry;
+		final byte[] key;
+		final byte[] value;
+		int queue;
+		Node prev;
+		Node next;
+
+		Node(HashEntry entry, byte[] key, byte[] value) {
+			this.entry = entry;
+			this.key = key;
+			this.value = value;
+		}
+
+		int size() {
+			return key.length + value.length;
+		}
+	}
+
+	private final long maxWindowBytes;
+	private final long maxMainBytes;
+	private final long maxProtectedBytes;
+
+	private final Node[] heads = new Node[3]; // sentinels, head.next is the most recently used
+	private final long[] bytes = new long[3];
+
+	private final FrequencySketch sketch;
+
+	volatile long hitCount;
+	volatile long missCount;
+
+	NearCache(long maxBytes) {
+		this.maxWindowBytes = Math.max(1, maxBytes / 100);
+		this.maxMainBytes = maxBytes - this.maxWindowBytes;
+		this.maxProtectedBytes = this.maxMainBytes * 4 / 5;
+		for(int i = 0; i < heads.length; i++) {
+			Node head = new Node(null, null, null);
+			head.prev = head;
+			head.next = head;
+			heads[i] = head;
+		}
+		this.sketch = new FrequencySketch((int)Math.min(Integer.MAX_VALUE, maxBytes / SKETCH_BYTES_PER_ITEM));
+	}
+
+	/**
+	 * Record an access to the hash, hit or miss
+	 */
+	void recordAccess(int hash) {
+		sketch.increment(hash);
+	}
+
+	/**
+	 * Record a hit on a cached entry
+	 */
+	void hit(Node node) {
+		hitCount++;
+		if (node.queue == PROBATION) {
+			this.unlink(node);
+			this.linkFirst(PROTECTED, node);
+			while(bytes[PROTECTED] > maxProtectedBytes) { // overflow goes back to probation
+				Node demoted = heads[PROTECTED].prev;
+				this.unlink(demoted);
+				this.linkFirst(PROBATION, demoted);
+			}
+		} else {
+			this.unlink(node);
+			this.linkFirst(node.queue, node);
+		}
+	}
+
+	/**
+	 * Offer an entry read from the pages or the hot tier, it may or may not be admitted,
+	 * the key and value are copied on admission only
+	 */
+	void miss(HashEntry e, byte[] key, byte[] value) {
+		missCount++;
+		// an entry with a hot copy is cached off heap already, it is not cached twice
+		if (e.hot != null || key.length + value.length > maxMainBytes) return;
+		Node node = new Node(e, key.clone(), value.clone());
+		e.near = node;
+		this.linkFirst(WINDOW, node);
+		while(bytes[WINDOW] > maxWindowBytes) {
+			Node candidate = heads[WINDOW].prev;
+			this.unlink(candidate);
+			this.admit(candidate);
+		}
+	}
+
+	// the window victim competes with the main victims for room
+	private void admit(Node candidate) {
+		int candidateFrequency = sketch.frequency(candidate.entry.hash);
+		while(bytes[PROBATION] + bytes[PROTECTED] + candidate.size() > maxMainBytes) {
+			Node victim = heads[PROBATION].prev;
+			if (victim == heads[PROBATION]) {
+				victim = heads[PROTECTED].prev;
+			}
+			if (candidateFrequency > sketch.frequency(victim.entry.hash)) {
+				this.unlink(victim);
+				victim.entry.near = null;
+			} else {
+				candidate.entry.near = null;
+				return;
+			}
+		}
+		this.linkFirst(PROBATION, candidate);
+	}
+
+	/**
+	 * Drop the cached copy of the entry if any
+	 */
+	void invalidate(HashEntry e) {
+		Node node = e.near;
+		if (node == null) return;
+		this.unlink(node);
+		e.near = null;
+	}
+
+	void clear() {
+		for(int i = 0; i < heads.length; i++) {
+			Node head = heads[i];
+			for(Node node = head.next; node != head; node = node.next) {
+				node.entry.near = null;
+			}
+			head.prev = head;
+			head.next = head;
+			bytes[i] = 0;
+		}
+	}
+
+	long getUsedBytes() {
+		return bytes[WINDOW] + bytes[PROBATION] + bytes[PROTECTED];
+	}
+
+	private void linkFirst(int queue, Node node) {
+		Node head = heads[queue];
+		node.queue = queue;
+		node.prev = head;
+		node.next = head.next;
+		head.next.prev = node;
+		head.next = node;
+		bytes[queue] += node.size();
+	}
+
+	private void unlink(Node node) {
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = null;
+		node.next = null;
+		bytes[node.queue] -= node.size();
+	}
+}
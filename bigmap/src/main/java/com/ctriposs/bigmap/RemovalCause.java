@@ -0,0 +1,25 @@
+package com.ctriposs.bigmap;
+
+/**
+ * Why an entry was removed from the map, see {@link IRemovalListener}
+ * 
+ * @author bulldog
+ *
+ */
+public enum RemovalCause {
+	
+	/**
+	 * The time to live of the entry elapsed, found by a purge or a lookup.
+	 */
+	EXPIRED,
+	
+	/**
+	 * The entry was dropped to keep the map within its size bound.
+	 */
+	EVICTED,
+	
+	/**
+	 * The entry was removed by a call to <tt>remove</tt>.
+	 */
+	REMOVED
+}
@@ -0,0 +1,111 @@
+package com.ctriposs.bigmap;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queue of removal notifications drained in batches to the listener by a thread of its own.
+ * 
+ * Segments offer notifications while holding their lock, offering is a lock free enqueue, at
+ * most one drain task is in flight and it takes everything queued by the time it runs.
+ * 
+ * @author bulldog
+ *
+ */
+class RemovalDispatcher implements Closeable {
+	
+	private final static Logger logger = LoggerFactory.getLogger(RemovalDispatcher.class);
+	
+	private final IRemovalListener listener;
+	final boolean valueDelivered;
+	private final int batchSize;
+	
+	private final Queue<RemovalNotification> queue = new ConcurrentLinkedQueue<RemovalNotification>();
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private final ExecutorService executor;
+	
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+	
+	RemovalDispatcher(IRemovalListener listener, boolean valueDelivered, int batchSize, final String threadName) {
+		this.listener = listener;
+		this.valueDelivered = valueDelivered;
+		this.batchSize = batchSize;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, threadName);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	void offer(byte[] key, byte[] value, RemovalCause cause) {
+		queue.offer(new RemovalNotification(key, value, cause));
+		if (draining.compareAndSet(false, true)) {
+			try {
+				executor.execute(drainTask);
+			} catch (RejectedExecutionException e) { // closed, dropped
+				draining.set(false);
+			}
+		}
+	}
+	
+	private void drain() {
+		while(true) {
+			List<RemovalNotification> batch = new ArrayList<RemovalNotification>();
+			RemovalNotification notification;
+			while((notification = queue.poll()) != null) {
+				batch.add(notification);
+				if (batch.size() >= batchSize) {
+					this.deliver(batch);
+					batch = new ArrayList<RemovalNotification>();
+				}
+			}
+			if (!batch.isEmpty()) {
+				this.deliver(batch);
+			}
+			draining.set(false);
+			// an offer may have seen the drain in flight after the last poll
+			if (queue.isEmpty() || !draining.compareAndSet(false, true)) return;
+		}
+	}
+	
+	private void deliver(List<RemovalNotification> batch) {
+		try {
+			listener.onRemoval(batch);
+		} catch (RuntimeException e) {
+			logger.warn("Removal listener failed on " + batch.size() + " notifications", e);
+		}
+	}
+	
+	/**
+	 * Deliver the notifications queued so far and stop the thread, later notifications are dropped
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
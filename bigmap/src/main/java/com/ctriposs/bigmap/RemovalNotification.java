@@ -0,0 +1,35 @@
+package com.ctriposs.bigmap;
+
+/**
+ * Key, and optionally value, of an entry removed from the map with the cause of the removal
+ * 
+ * @author bulldog
+ *
+ */
+public final class RemovalNotification {
+	
+	private final byte[] key;
+	private final byte[] value;
+	private final RemovalCause cause;
+	
+	RemovalNotification(byte[] key, byte[] value, RemovalCause cause) {
+		this.key = key;
+		this.value = value;
+		this.cause = cause;
+	}
+	
+	public byte[] getKey() {
+		return key;
+	}
+	
+	/**
+	 * @return value of the removed entry, null unless values are delivered, see {@link BigConfig#setRemovalValueDelivered(boolean)}
+	 */
+	public byte[] getValue() {
+		return value;
+	}
+	
+	public RemovalCause getCause() {
+		return cause;
+	}
+}
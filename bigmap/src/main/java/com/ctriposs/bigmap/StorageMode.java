@@ -0,0 +1,28 @@
+package com.ctriposs.bigmap;
+
+/**
+ * Where the pages of a map live
+ * 
+ * @author bulldog
+ *
+ */
+public enum StorageMode {
+	
+	/**
+	 * Pages are memory mapped files under the map directory, the map survives restart.
+	 */
+	PERSISTENT,
+	
+	/**
+	 * Pages are direct memory, no file is created and nothing is written to disk,
+	 * the map content is lost on close.
+	 */
+	OFFHEAP,
+	
+	/**
+	 * Index and meta pages are memory mapped, data pages are files accessed with positional
+	 * reads and coalesced positional writes, for data sets far larger than memory where mapping
+	 * the data would thrash the page cache. The map survives restart.
+	 */
+	FILE_CHANNEL
+}
@@ -0,0 +1,290 @@
+package com.ctriposs.bigmap.page;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File channel page resource manager, pages are accessed with positional reads and
+ * coalesced positional writes instead of being memory mapped, so the data set is not
+ * bounded by the address space or page cache pressure, and every I/O is counted.
+ *
+ * Page files are named and laid out the same as {@link MappedPageFactoryImpl} pages,
+ * the two can be used on the same directory.
+ *
+ * @author bulldog
+ *
+ */
+public class FileChannelPageFactoryImpl implements IMappedPageFactory {
+
+	private final static Logger logger = LoggerFactory.getLogger(FileChannelPageFactoryImpl.class);
+
+	public static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+	public static final int DEFAULT_WRITE_BUFFER_SIZE = 64 * 1024;
+	// max number of idle read buffers kept in the pool
+	private static final int MAX_POOLED_READ_BUFFERS = 64;
+
+	private int pageSize;
+	private String pageDir;
+	private String pageFile;
+	private int readBufferSize;
+	private int writeBufferSize;
+
+	// page file bookkeeping only, never maps a page
+	private MappedPageFactoryImpl files;
+
+	// lock free on hit, opens are serialized by the lock on the table
+	private PageTable<FileChannelPageImpl> cache;
+
+	private Queue<ByteBuffer> readBufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+	private AtomicInteger pooledReadBuffers = new AtomicInteger();
+
+	private AtomicLong readCount = new AtomicLong();
+	private AtomicLong readBytes = new AtomicLong();
+	private AtomicLong writeCount = new AtomicLong();
+	private AtomicLong writeBytes = new AtomicLong();
+
+	public FileChannelPageFactoryImpl(int pageSize, String pageDir) {
+		this(pageSize, pageDir, DEFAULT_READ_BUFFER_SIZE, DEFAULT_WRITE_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param pageSize page size
+	 * @param pageDir page directory
+	 * @param readBufferSize size of the pooled direct buffers reads go through, the max size of a single read
+	 * @param writeBufferSize size of the per page write buffer, the max size of a single coalesced write
+	 */
+	public FileChannelPageFactoryImpl(int pageSize, String pageDir, int readBufferSize, int writeBufferSize) {
+		if (readBufferSize < 8) throw new IllegalArgumentException("read buffer size " + readBufferSize + " < 8");
+		if (writeBufferSize < 8) throw new IllegalArgumentException("write buffer size " + writeBufferSize + " < 8");
+		this.files = new MappedPageFactoryImpl(pageSize, pageDir);
+		this.pageSize = pageSize;
+		this.pageDir = files.getPageDir();
+		this.pageFile = this.pageDir + MappedPageFactoryImpl.PAGE_FILE_NAME + "-";
+		this.readBufferSize = readBufferSize;
+		this.writeBufferSize = writeBufferSize;
+		this.cache = new PageTable<FileChannelPageImpl>();
+	}
+
+	@Override
+	public IMappedPage acquirePage(long index) throws IOException {
+		FileChannelPageImpl page = cache.get(index);
+		if (page != null && page.pin()) { // a page retired for removal can't be pinned, go to the slow path
+			return page;
+		}
+
+		synchronized(cache) {
+			page = cache.get(index);
+			if (page == null) {
+				String fileName = this.pageFile + index + MappedPageFactoryImpl.PAGE_FILE_SUFFIX;
+				if (files.isDeleted(index)) {
+					throw new PageDeletedException("page " + fileName + " has been deleted");
+				}
+				page = new FileChannelPageImpl(this, new RandomAccessFile(fileName, "rw"), fileName, index);
+				cache.put(index, page);
+				if (logger.isDebugEnabled()) {
+					logger.debug("File channel page for " + fileName + " was just opened and cached.");
+				}
+			}
+			page.pin(); // pages in cache are only retired under the lock
+		}
+		return page;
+	}
+
+	/**
+	 * Pages stay open until they are released or deleted, a page released or deleted while
+	 * acquired is closed here by its last user
+	 */
+	@Override
+	public void releasePage(IMappedPage page) {
+		((FileChannelPageImpl)page).unpin();
+	}
+
+	ByteBuffer borrowReadBuffer() {
+		ByteBuffer buf = readBufferPool.poll();
+		if (buf != null) {
+			pooledReadBuffers.decrementAndGet();
+			return buf;
+		}
+		return ByteBuffer.allocateDirect(readBufferSize);
+	}
+
+	void returnReadBuffer(ByteBuffer buf) {
+		if (pooledReadBuffers.incrementAndGet() <= MAX_POOLED_READ_BUFFERS) {
+			readBufferPool.offer(buf);
+		} else {
+			pooledReadBuffers.decrementAndGet();
+		}
+	}
+
+	int getWriteBufferSize() {
+		return writeBufferSize;
+	}
+
+	void recordRead(int bytes) {
+		readCount.incrementAndGet();
+		readBytes.addAndGet(bytes);
+	}
+
+	void recordWrite(long bytes) {
+		writeCount.incrementAndGet();
+		writeBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * @return number of positional reads issued
+	 */
+	public long getReadCount() {
+		return readCount.get();
+	}
+
+	/**
+	 * @return total bytes read from page files
+	 */
+	public long getReadBytes() {
+		return readBytes.get();
+	}
+
+	/**
+	 * @return number of positional writes issued, after coalescing
+	 */
+	public long getWriteCount() {
+		return writeCount.get();
+	}
+
+	/**
+	 * @return total bytes written to page files
+	 */
+	public long getWriteBytes() {
+		return writeBytes.get();
+	}
+
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	@Override
+	public String getPageDir() {
+		return pageDir;
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void deletePage(long index) throws IOException {
+		synchronized(cache) {
+			files.markDeleted(index); // before the page leaves the table, no reader opens it again
+			FileChannelPageImpl page = cache.remove(index);
+			if (page != null) {
+				page.discard(); // closed by the last reader still holding it
+			}
+		}
+		files.deletePage(index);
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void deletePages(Set<Long> indexes) throws IOException {
+		if (indexes == null) return;
+		for(long index : indexes) {
+			this.deletePage(index);
+		}
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void deleteAllPages() throws IOException {
+		this.releaseCachedPages();
+		files.deleteAllPages();
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void releaseCachedPages() throws IOException {
+		synchronized(cache) {
+			for(FileChannelPageImpl page : cache.values()) {
+				page.discard(); // closed by the last reader still holding it
+			}
+			cache.clear();
+		}
+	}
+
+	@Override
+	public Set<Long> getPageIndexSetBefore(long timestamp) {
+		return files.getPageIndexSetBefore(timestamp);
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void deletePagesBefore(long timestamp) throws IOException {
+		this.deletePages(this.getPageIndexSetBefore(timestamp));
+	}
+
+	@Override
+	public long getPageFileLastModifiedTime(long index) {
+		return files.getPageFileLastModifiedTime(index);
+	}
+
+	@Override
+	public long getFirstPageIndexBefore(long timestamp) {
+		return files.getFirstPageIndexBefore(timestamp);
+	}
+
+	@Override
+	public Set<Long> getExistingBackFileIndexSet() {
+		return files.getExistingBackFileIndexSet();
+	}
+
+	@Override
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return 0L; // nothing mapped, nothing to evict
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void flush() {
+		for(FileChannelPageImpl page : cache.values()) {
+			page.flush();
+		}
+	}
+
+	@Override
+	public Set<String> getBackPageFileSet() {
+		return files.getBackPageFileSet();
+	}
+
+	/**
+	 * Page files grow as they are written, the size counts written out ranges only
+	 */
+	@Override
+	public long getBackPageFileSize() {
+		return files.getBackPageFileSize();
+	}
+
+}
@@ -0,0 +1,325 @@
+package com.ctriposs.bigmap.page;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Page backed by positional file channel I/O instead of a memory mapping.
+ *
+ * Reads go to the file with pread into pooled direct buffers, writes are coalesced
+ * in a per page write buffer while they are contiguous and are written out in one
+ * pwrite when the buffer is full, a non contiguous write comes, an overlapping read
+ * comes, or on flush.
+ *
+ * I/O errors are rethrown as unchecked {@link IllegalStateException}s since the page
+ * accessors don't declare IOException. Pages are pinned while acquired, a page released
+ * or deleted under a reader is closed by its last release.
+ *
+ * @author bulldog
+ *
+ */
+public class FileChannelPageImpl implements IMappedPage, Closeable {
+
+	private final static Logger logger = LoggerFactory.getLogger(FileChannelPageImpl.class);
+
+	private final FileChannelPageFactoryImpl factory;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private final String pageFile;
+	private final long index;
+	private volatile boolean dirty = false;
+	private volatile boolean closed = false;
+
+	// number of callers currently using the page, with the retired bit set once the page is
+	// retired for removal, no pin succeeds after that
+	private final AtomicInteger refCount = new AtomicInteger();
+	private static final int RETIRED = Integer.MIN_VALUE;
+
+	// coalescing write buffer, guarded by this
+	private ByteBuffer writeBuffer;
+	private int writeStart;
+	private int writeLength;
+
+	FileChannelPageImpl(FileChannelPageFactoryImpl factory, RandomAccessFile raf, String pageFile, long index) {
+		this.factory = factory;
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.pageFile = pageFile;
+		this.index = index;
+		this.writeBuffer = ByteBuffer.allocateDirect(factory.getWriteBufferSize());
+	}
+
+	/**
+	 * Pin the page for use, fails if the page has been retired
+	 *
+	 * @return true if pinned, false otherwise
+	 */
+	boolean pin() {
+		for(;;) {
+			int count = refCount.get();
+			if (count < 0) return false;
+			if (refCount.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void unpin() {
+		if (refCount.decrementAndGet() == RETIRED) { // last user of a discarded page
+			this.closeQuietly();
+		}
+	}
+
+	/**
+	 * Retire the page for removal whoever is using it, the page is closed now if nobody is,
+	 * or by the last unpin otherwise. The caller must have removed the page from its table.
+	 */
+	void discard() {
+		for(;;) {
+			int count = refCount.get();
+			if (count < 0) return; // already retired
+			if (refCount.compareAndSet(count, count | RETIRED)) {
+				if (count == 0) {
+					this.closeQuietly();
+				}
+				return;
+			}
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			this.close();
+		} catch (IOException e) {
+			logger.warn("fail to close retired page " + this.pageFile, e);
+		}
+	}
+
+	@Override
+	public byte[] getLocal(int position, int length) {
+		byte[] data = new byte[length];
+		this.getBytes(position, data, 0, length);
+		return data;
+	}
+
+	@Override
+	public byte get(int position) {
+		ByteBuffer buf = this.read(position, 1);
+		try {
+			return buf.get(0);
+		} finally {
+			factory.returnReadBuffer(buf);
+		}
+	}
+
+	@Override
+	public int getInt(int position) {
+		ByteBuffer buf = this.read(position, 4);
+		try {
+			return buf.getInt(0);
+		} finally {
+			factory.returnReadBuffer(buf);
+		}
+	}
+
+	@Override
+	public long getLong(int position) {
+		ByteBuffer buf = this.read(position, 8);
+		try {
+			return buf.getLong(0);
+		} finally {
+			factory.returnReadBuffer(buf);
+		}
+	}
+
+	@Override
+	public synchronized void put(int position, byte value) {
+		writeBuffer.put(this.reserve(position, 1), value);
+	}
+
+	@Override
+	public synchronized void putInt(int position, int value) {
+		writeBuffer.putInt(this.reserve(position, 4), value);
+	}
+
+	@Override
+	public synchronized void putLong(int position, long value) {
+		writeBuffer.putLong(this.reserve(position, 8), value);
+	}
+
+	@Override
+	public void getBytes(int position, byte[] dst, int offset, int length) {
+		this.flushIfOverlaps(position, length);
+		ByteBuffer buf = factory.borrowReadBuffer();
+		try {
+			int done = 0;
+			while(done < length) {
+				int n = Math.min(length - done, buf.capacity());
+				buf.clear();
+				buf.limit(n);
+				this.readFully(buf, position + done);
+				buf.flip();
+				buf.get(dst, offset + done, n);
+				done += n;
+			}
+		} finally {
+			factory.returnReadBuffer(buf);
+		}
+	}
+
+	@Override
+	public synchronized void putBytes(int position, byte[] src, int offset, int length) {
+		if (length > writeBuffer.capacity()) { // too large to coalesce, write through
+			this.flushWriteBuffer();
+			this.writeFully(ByteBuffer.wrap(src, offset, length), position);
+			return;
+		}
+		int bufferOffset = this.reserve(position, length);
+		ByteBuffer view = writeBuffer.duplicate();
+		view.position(bufferOffset);
+		view.put(src, offset, length);
+	}
+
+	// reserve room in the write buffer for a write at the position, returns the offset in the buffer
+	private int reserve(int position, int length) {
+		if (closed) throw new IllegalStateException("file channel page " + pageFile + " is closed");
+		if (writeLength > 0 && (position != writeStart + writeLength || writeLength + length > writeBuffer.capacity())) {
+			this.flushWriteBuffer();
+		}
+		if (writeLength == 0) {
+			writeStart = position;
+		}
+		int bufferOffset = writeLength;
+		writeLength += length;
+		dirty = true;
+		return bufferOffset;
+	}
+
+	// read your own writes, pending writes overlapping the range go to the file first
+	private void flushIfOverlaps(int position, int length) {
+		if (writeLength == 0) return; // racy fast path, a concurrent writer is a race at the map level anyway
+		synchronized(this) {
+			if (writeLength > 0 && position < writeStart + writeLength && writeStart < position + length) {
+				this.flushWriteBuffer();
+			}
+		}
+	}
+
+	private ByteBuffer read(int position, int length) {
+		this.flushIfOverlaps(position, length);
+		ByteBuffer buf = factory.borrowReadBuffer();
+		buf.clear();
+		buf.limit(length);
+		try {
+			this.readFully(buf, position);
+		} catch (RuntimeException e) {
+			factory.returnReadBuffer(buf);
+			throw e;
+		}
+		return buf;
+	}
+
+	private void readFully(ByteBuffer buf, long position) {
+		try {
+			while(buf.hasRemaining()) {
+				int n = channel.read(buf, position + buf.position());
+				if (n < 0) { // beyond the end of file, an unwritten range reads as zeros
+					while(buf.hasRemaining()) buf.put((byte)0);
+					break;
+				}
+				factory.recordRead(n);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to read file channel page " + pageFile, e);
+		}
+	}
+
+	private void writeFully(ByteBuffer buf, long position) {
+		try {
+			long start = position;
+			while(buf.hasRemaining()) {
+				int n = channel.write(buf, position);
+				position += n;
+			}
+			factory.recordWrite(position - start);
+		} catch (IOException e) {
+			throw new IllegalStateException("fail to write file channel page " + pageFile, e);
+		}
+	}
+
+	// caller must hold the lock on this
+	private void flushWriteBuffer() {
+		if (writeLength == 0) return;
+		ByteBuffer view = writeBuffer.duplicate();
+		view.position(0);
+		view.limit(writeLength);
+		this.writeFully(view, writeStart);
+		writeLength = 0;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+
+	@Override
+	public String getPageFile() {
+		return this.pageFile;
+	}
+
+	@Override
+	public long getPageIndex() {
+		return this.index;
+	}
+
+	/**
+	 * Write out the write buffer and force the changes to disk
+	 */
+	@Override
+	public synchronized void flush() {
+		if (closed) return;
+		this.flushWriteBuffer();
+		if (dirty) {
+			try {
+				channel.force(false);
+			} catch (IOException e) {
+				throw new IllegalStateException("fail to flush file channel page " + pageFile, e);
+			}
+			dirty = false;
+			if (logger.isDebugEnabled()) {
+				logger.debug("File channel page " + this.pageFile + " was just flushed.");
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		this.flush();
+		closed = true;
+		channel.close();
+		raf.close();
+		channel = null;
+		raf = null;
+		writeBuffer = null; // hint GC
+		if (logger.isDebugEnabled()) {
+			logger.debug("File channel page " + this.pageFile + " was just closed.");
+		}
+	}
+
+	public String toString() {
+		return "File channel page for " + this.pageFile + ", index = " + this.index + ".";
+	}
+}
@@ -1,7 +1,5 @@
 package com.ctriposs.bigmap.page;
 
-import java.nio.ByteBuffer;
-
 /**
  * Memory mapped page file ADT
  * 
@@ -11,28 +9,47 @@ import java.nio.ByteBuffer;
 public interface IMappedPage {
 	
 	/**
-	 * Get a thread local copy of the mapped page buffer
+	 * Get data from the mapped page buffer
 	 * 
-	 * @param position start position(relative to the start position of source mapped page buffer) of the thread local buffer
-	 * @return a byte buffer with specific position as start position.
+	 * @param position start position(relative to the start position of source mapped page buffer)
+	 * @param length the length to fetch
+	 * @return byte data
 	 */
-	ByteBuffer getLocal(int position);
+	public byte[] getLocal(int position, int length);
+	
+	// absolute access, thread safe and allocation free, positions are relative to the start of the page
+	
+	byte get(int position);
+	
+	void put(int position, byte value);
+	
+	int getInt(int position);
+	
+	void putInt(int position, int value);
+	
+	long getLong(int position);
+	
+	void putLong(int position, long value);
 	
 	/**
-	 * Get a thread local copy of the mapped page buffer
+	 * Copy data from the page into an array
 	 * 
-	 * @return a byte buffer with specific position as start position.
+	 * @param position start position in the page
+	 * @param dst destination array
+	 * @param offset offset in the destination array
+	 * @param length the length to copy
 	 */
-	ByteBuffer getLocal();
+	void getBytes(int position, byte[] dst, int offset, int length);
 	
 	/**
-	 * Get data from a thread local copy of the mapped page buffer
+	 * Copy data from an array into the page
 	 * 
-	 * @param position start position(relative to the start position of source mapped page buffer) of the thread local buffer
-	 * @param length the length to fetch
-	 * @return byte data
+	 * @param position start position in the page
+	 * @param src source array
+	 * @param offset offset in the source array
+	 * @param length the length to copy
 	 */
-	public byte[] getLocal(int position, int length);
+	void putBytes(int position, byte[] src, int offset, int length);
 	
 	/**
 	 * Check if this mapped page has been closed or not
@@ -16,10 +16,19 @@ public interface IMappedPageFactory {
 	 * 
 	 * @param index the index of the page
 	 * @return a mapped page
+	 * @throws PageDeletedException if the page has been deleted since the last delete of all pages
 	 * @throws IOException exception thrown if there was any IO error during the acquire operation
 	 */
 	IMappedPage acquirePage(long index) throws IOException;
 	
+	/**
+	 * Release a page acquired from the factory, every acquire should be paired with a release
+	 * once the caller is done with the page. A page still acquired by someone is never unmapped on eviction.
+	 * 
+	 * @param page the page to release
+	 */
+	void releasePage(IMappedPage page);
+	
 	/**
 	 * Current set page size, when creating pages, the factory will
 	 * only create pages with this size.
@@ -38,7 +47,7 @@ public interface IMappedPageFactory {
 	/**
 	 * delete a mapped page with specific index in this factory,
 	 * this call will remove the page from the cache if it is cached and
-	 * delete back file.
+	 * delete back file. The index can't be acquired again until all pages are deleted.
 	 * 
 	 * @param index the index of the page
 	 * @throws IOException exception thrown if there was any IO error during the delete operation.
@@ -115,6 +124,13 @@ public interface IMappedPageFactory {
 	 */
 	int getCacheSize();
 	
+	/**
+	 * Total number of pages unmapped because the cache reached the max number of mapped pages
+	 * 
+	 * @return eviction count
+	 */
+	long getEvictionCount();
+	
 	/**
 	 * Persist any changes in cached mapped pages
 	 */
@@ -5,12 +5,15 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,9 +41,34 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	public static final String PAGE_FILE_NAME = "page";
 	public static final String PAGE_FILE_SUFFIX = ".dat";
 	
-	private Map<Long, MappedPageImpl> cache;
+	// lock free on hit, misses are serialized by the lock on the table
+	private PageTable<MappedPageImpl> cache;
+	
+	// max number of mapped pages, 0 means unbounded
+	private int maxCachedPages;
+	// CLOCK ring of mapped pages and its hand, guarded by the cache lock
+	private List<MappedPageImpl> clock;
+	private int clockHand;
+	private AtomicLong evictionCount = new AtomicLong();
+	
+	// indexes of pages deleted since the last delete of all pages, never mapped again
+	private Set<Long> deletedIndexes = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 	
 	public MappedPageFactoryImpl(int pageSize, String pageDir) {
+		this(pageSize, pageDir, 0);
+	}
+	
+	/**
+	 * Create a factory keeping at most maxCachedPages pages mapped, cold pages are flushed and unmapped
+	 * by CLOCK eviction when the limit is exceeded, pages still acquired are skipped.
+	 * 
+	 * @param pageSize page size
+	 * @param pageDir page directory
+	 * @param maxCachedPages max number of mapped pages, 0 means unbounded
+	 */
+	public MappedPageFactoryImpl(int pageSize, String pageDir, int maxCachedPages) {
+		if (maxCachedPages < 0) throw new IllegalArgumentException("max cached pages " + maxCachedPages + " < 0");
+		this.maxCachedPages = maxCachedPages;
 		this.pageSize = pageSize;
 		this.pageDir = pageDir;
 		this.pageDirFile = new File(this.pageDir);
@@ -51,42 +79,101 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 			this.pageDir += File.separator;
 		}
 		this.pageFile = this.pageDir + PAGE_FILE_NAME + "-"; 
-		this.cache = new HashMap<Long, MappedPageImpl>();
+		this.cache = new PageTable<MappedPageImpl>();
+		this.clock = new ArrayList<MappedPageImpl>();
 	}
 
 	public IMappedPage acquirePage(long index) throws IOException {
 		MappedPageImpl mpi = cache.get(index);
-		if (mpi == null) { // not in cache, need to create one
-				synchronized(cache) { // lock the map
-					mpi = cache.get(index); // double check
-					if (mpi == null) {
-						RandomAccessFile raf = null;
-						FileChannel channel = null;
-						try {
-							String fileName = this.getFileNameByIndex(index);
-							raf = new RandomAccessFile(fileName, "rw");
-							channel = raf.getChannel();
-							MappedByteBuffer mbb = channel.map(READ_WRITE, 0, this.pageSize);
-							mpi = new MappedPageImpl(mbb, fileName, index);
-							cache.put(index, mpi);
-							if (logger.isDebugEnabled()) {
-								logger.debug("Mapped page for " + fileName + " was just created and cached.");
-							}
-						} finally {
-							if (channel != null) channel.close();
-							if (raf != null) raf.close();
-						}
-					}
-				}
-	    } else {
+		if (mpi != null && mpi.pin()) { // a page retired by eviction can't be pinned, go to the slow path
 	    	if (logger.isDebugEnabled()) {
 	    		logger.debug("Hit mapped page " + mpi.getPageFile() + " in cache.");
 	    	}
-	    }
+	    	return mpi;
+		}
+		
+		List<MappedPageImpl> evicted;
+		synchronized(cache) { // lock the map
+			mpi = cache.get(index); // double check, pages in cache can only be retired under the lock
+			if (mpi == null) { // not in cache, need to create one
+				if (deletedIndexes.contains(index)) {
+					throw new PageDeletedException("page " + this.getFileNameByIndex(index) + " has been deleted");
+				}
+				RandomAccessFile raf = null;
+				FileChannel channel = null;
+				try {
+					String fileName = this.getFileNameByIndex(index);
+					raf = new RandomAccessFile(fileName, "rw");
+					channel = raf.getChannel();
+					MappedByteBuffer mbb = channel.map(READ_WRITE, 0, this.pageSize);
+					mpi = new MappedPageImpl(mbb, fileName, index);
+					cache.put(index, mpi);
+					clock.add(mpi);
+					if (logger.isDebugEnabled()) {
+						logger.debug("Mapped page for " + fileName + " was just created and cached.");
+					}
+				} finally {
+					if (channel != null) channel.close();
+					if (raf != null) raf.close();
+				}
+			}
+			mpi.pin();
+			evicted = this.evict();
+		}
+		
+		// flush and unmap outside the lock, evicted pages are already unlinked and can't be pinned again
+		for(MappedPageImpl page : evicted) {
+			try {
+				page.close();
+			} catch (IOException e) {
+				logger.warn("fail to close evicted page " + page.getPageFile(), e);
+			}
+		}
 	
 		return mpi;
 	}
 	
+	@Override
+	public void releasePage(IMappedPage page) {
+		((MappedPageImpl)page).unpin();
+	}
+	
+	// CLOCK eviction, caller must hold the cache lock and close the returned pages after releasing it
+	private List<MappedPageImpl> evict() {
+		if (maxCachedPages <= 0) return Collections.emptyList();
+		
+		List<MappedPageImpl> evicted = new ArrayList<MappedPageImpl>();		
+		// at most two rounds, the first round may only clear the reference bits
+		int round = clock.size() * 2;
+		while(cache.size() > maxCachedPages && round-- > 0) {
+			if (clockHand >= clock.size()) clockHand = 0;
+			MappedPageImpl candidate = clock.get(clockHand);
+			if (candidate.referenced) {
+				candidate.referenced = false; // second chance
+				clockHand++;
+			} else if (candidate.retire()) {
+				clock.remove(clockHand);
+				cache.remove(candidate.getPageIndex());
+				evicted.add(candidate);
+				evictionCount.incrementAndGet();
+				if (logger.isDebugEnabled()) {
+					logger.debug("Mapped page for " + candidate.getPageFile() + " was just evicted.");
+				}
+			} else { // in use
+				clockHand++;
+			}
+		}
+		return evicted;
+	}
+	
+	boolean isDeleted(long index) {
+		return deletedIndexes.contains(index);
+	}
+	
+	void markDeleted(long index) {
+		deletedIndexes.add(index);
+	}
+	
 	private String getFileNameByIndex(long index) {
 		return this.pageFile + index + PAGE_FILE_SUFFIX;
 	}
@@ -116,23 +203,32 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 		this.removeAllCache();
 		Set<Long> indexSet = getExistingBackFileIndexSet();
 		this.deletePages(indexSet);
+		deletedIndexes.clear(); // a fresh start, indexes are handed out again
 		if (logger.isDebugEnabled()) {
 			logger.debug("All page files in dir " + this.pageDir + " have been deleted.");
 		}
 	}
 	
 	private void removeCache(long index) throws IOException {
-		MappedPageImpl page = cache.remove(index);
-		if (page != null) {
-			page.close();
+		synchronized(cache) {
+			deletedIndexes.add(index); // before the page leaves the table, no reader maps it again
+			MappedPageImpl page = cache.remove(index);
+			if (page != null) {
+				clock.remove(page);
+				page.discard(); // unmapped by the last reader still holding it
+			}
 		}
 	}
 	
 	private void removeAllCache() throws IOException {
-		for(MappedPageImpl page : cache.values()) {
-			page.close();
+		synchronized(cache) {
+			for(MappedPageImpl page : cache.values()) {
+				page.discard(); // unmapped by the last reader still holding it
+			}
+			cache.clear();
+			clock.clear();
+			clockHand = 0;
 		}
-		cache.clear();
 	}
 	
 	/**
@@ -240,6 +336,11 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 	public int getCacheSize() {
 		return cache.size();
 	}
+	
+	@Override
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
 
 	@Override
 	public long getPageFileLastModifiedTime(long index) {
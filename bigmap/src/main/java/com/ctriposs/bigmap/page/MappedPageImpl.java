@@ -2,26 +2,37 @@ package com.ctriposs.bigmap.page;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ctriposs.bigmap.utils.BufferCleaner;
+
 
 public class MappedPageImpl implements IMappedPage, Closeable {
 	
 	private final static Logger logger = LoggerFactory.getLogger(MappedPageImpl.class);
 	
-	private ThreadLocalByteBuffer threadLocalBuffer;
+	// shared by all threads, only absolute(position independent) operations are used on it,
+	// a mapped buffer for a file backed page, or a plain direct buffer for an off-heap page
+	private ByteBuffer buffer;
 	private volatile boolean dirty = false;
 	private volatile boolean closed = false;
 	private String pageFile;
 	private long index;
 	
-	public MappedPageImpl(MappedByteBuffer mbb, String pageFile, long index) {
-		this.threadLocalBuffer = new ThreadLocalByteBuffer(mbb);
+	// number of callers currently using the page, with the retired bit set once the page is
+	// retired for eviction or removal, no pin succeeds after that
+	private final AtomicInteger refCount = new AtomicInteger();
+	private static final int RETIRED = Integer.MIN_VALUE;
+	// CLOCK reference bit, set on access and cleared by the eviction hand
+	volatile boolean referenced = true;
+	
+	public MappedPageImpl(ByteBuffer buffer, String pageFile, long index) {
+		this.buffer = buffer;
 		this.pageFile = pageFile;
 		this.index = index;
 	}
@@ -32,10 +43,9 @@ public class MappedPageImpl implements IMappedPage, Closeable {
 
 			flush();
 			
-			MappedByteBuffer srcBuf = (MappedByteBuffer)threadLocalBuffer.getSourceBuffer();
-			unmap(srcBuf);
+			unmap(buffer);
 			
-			this.threadLocalBuffer = null; // hint GC
+			this.buffer = null; // hint GC
 			
 			closed = true;
 			if (logger.isDebugEnabled()) {
@@ -44,6 +54,62 @@ public class MappedPageImpl implements IMappedPage, Closeable {
 		}
 	}
 	
+	/**
+	 * Pin the page for use, fails if the page has been retired for eviction
+	 * 
+	 * @return true if pinned, false otherwise
+	 */
+	boolean pin() {
+		for(;;) {
+			int count = refCount.get();
+			if (count < 0) return false;
+			if (refCount.compareAndSet(count, count + 1)) {
+				referenced = true;
+				return true;
+			}
+		}
+	}
+	
+	void unpin() {
+		if (refCount.decrementAndGet() == RETIRED) { // last user of a discarded page
+			this.closeQuietly();
+		}
+	}
+	
+	/**
+	 * Retire the page for eviction, only succeeds when nobody is using the page
+	 * 
+	 * @return true if retired, false otherwise
+	 */
+	boolean retire() {
+		return refCount.compareAndSet(0, RETIRED);
+	}
+	
+	/**
+	 * Retire the page for removal whoever is using it, the page is closed now if nobody is,
+	 * or by the last unpin otherwise. The caller must have removed the page from its table.
+	 */
+	void discard() {
+		for(;;) {
+			int count = refCount.get();
+			if (count < 0) return; // already retired
+			if (refCount.compareAndSet(count, count | RETIRED)) {
+				if (count == 0) {
+					this.closeQuietly();
+				}
+				return;
+			}
+		}
+	}
+	
+	private void closeQuietly() {
+		try {
+			this.close();
+		} catch (IOException e) {
+			logger.warn("fail to close retired page " + this.pageFile, e);
+		}
+	}
+	
 	@Override
 	public void setDirty(boolean dirty) {
 		this.dirty = dirty;
@@ -54,8 +120,9 @@ public class MappedPageImpl implements IMappedPage, Closeable {
 		synchronized(this) {
 			if (closed) return;
 			if (dirty) {
-				MappedByteBuffer srcBuf = (MappedByteBuffer)threadLocalBuffer.getSourceBuffer();
-				srcBuf.force(); // flush the changes
+				if (buffer instanceof MappedByteBuffer) {
+					((MappedByteBuffer)buffer).force(); // flush the changes
+				}
 				dirty = false;
 				if (logger.isDebugEnabled()) {
 					logger.debug("Mapped page for " + this.pageFile + " was just flushed.");
@@ -65,85 +132,68 @@ public class MappedPageImpl implements IMappedPage, Closeable {
 	}
 
 	public byte[] getLocal(int position, int length) {
-		ByteBuffer buf = this.getLocal(position);
 		byte[] data = new byte[length];
-		buf.get(data);
+		this.getBytes(position, data, 0, length);
 		return data;
 	}
 	
 	@Override
-	public ByteBuffer getLocal(int position) {
-		ByteBuffer buf = this.threadLocalBuffer.get();
-		buf.position(position);
-		return buf;
+	public byte get(int position) {
+		return this.buffer.get(position);
 	}
 	
 	@Override
-	public ByteBuffer getLocal() {
-		ByteBuffer buf = this.threadLocalBuffer.get();
-		return buf;
+	public void put(int position, byte value) {
+		this.buffer.put(position, value);
 	}
 	
-	private static void unmap(MappedByteBuffer buffer)
+	@Override
+	public int getInt(int position) {
+		return this.buffer.getInt(position);
+	}
+	
+	@Override
+	public void putInt(int position, int value) {
+		this.buffer.putInt(position, value);
+	}
+	
+	@Override
+	public long getLong(int position) {
+		return this.buffer.getLong(position);
+	}
+	
+	@Override
+	public void putLong(int position, long value) {
+		this.buffer.putLong(position, value);
+	}
+	
+	@Override
+	public void getBytes(int position, byte[] dst, int offset, int length) {
+		// no absolute bulk get before java 13, a transient view keeps the shared buffer untouched
+		ByteBuffer view = this.buffer.duplicate();
+		view.position(position);
+		view.get(dst, offset, length);
+	}
+	
+	@Override
+	public void putBytes(int position, byte[] src, int offset, int length) {
+		ByteBuffer view = this.buffer.duplicate();
+		view.position(position);
+		view.put(src, offset, length);
+	}
+	
+	private static void unmap(ByteBuffer buffer)
 	{
-		Cleaner.clean(buffer);
+		BufferCleaner.clean(buffer);
 	}
 	
     /**
-     * Helper class allowing to clean direct buffers.
+     * Whether a closed page releases its mapping right away, instead of waiting for GC
+     * 
+     * @return true if unmap is supported on this jvm
      */
-    private static class Cleaner {
-        public static final boolean CLEAN_SUPPORTED;
-        private static final Method directBufferCleaner;
-        private static final Method directBufferCleanerClean;
-
-        static {
-            Method directBufferCleanerX = null;
-            Method directBufferCleanerCleanX = null;
-            boolean v;
-            try {
-                directBufferCleanerX = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
-                directBufferCleanerX.setAccessible(true);
-                directBufferCleanerCleanX = Class.forName("sun.misc.Cleaner").getMethod("clean");
-                directBufferCleanerCleanX.setAccessible(true);
-                v = true;
-            } catch (Exception e) {
-                v = false;
-            }
-            CLEAN_SUPPORTED = v;
-            directBufferCleaner = directBufferCleanerX;
-            directBufferCleanerClean = directBufferCleanerCleanX;
-        }
-
-        public static void clean(ByteBuffer buffer) {
-    		if (buffer == null) return;
-            if (CLEAN_SUPPORTED && buffer.isDirect()) {
-                try {
-                    Object cleaner = directBufferCleaner.invoke(buffer);
-                    directBufferCleanerClean.invoke(cleaner);
-                } catch (Exception e) {
-                    // silently ignore exception
-                }
-            }
-        }
-    }
-    
-    private static class ThreadLocalByteBuffer extends ThreadLocal<ByteBuffer> {
-    	private ByteBuffer _src;
-    	
-    	public ThreadLocalByteBuffer(ByteBuffer src) {
-    		_src = src;
-    	}
-    	
-    	public ByteBuffer getSourceBuffer() {
-    		return _src;
-    	}
-    	
-    	@Override
-    	protected synchronized ByteBuffer initialValue() {
-    		ByteBuffer dup = _src.duplicate();
-    		return dup;
-    	}
+    static boolean isUnmapSupported() {
+    	return BufferCleaner.isSupported();
     }
 
 	@Override
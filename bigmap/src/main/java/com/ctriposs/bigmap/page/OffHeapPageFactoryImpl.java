@@ -0,0 +1,199 @@
+package com.ctriposs.bigmap.page;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Off-heap page resource manager, pages are direct memory instead of mapped files,
+ * nothing is created on or written to disk, and everything is lost on release.
+ *
+ * The page directory is only used as a name, page indexes play the role of page files.
+ *
+ * @author bulldog
+ *
+ */
+public class OffHeapPageFactoryImpl implements IMappedPageFactory {
+
+	private final static Logger logger = LoggerFactory.getLogger(OffHeapPageFactoryImpl.class);
+
+	private int pageSize;
+	private String pageDir;
+
+	// lock free on hit, allocations are serialized by the lock on the table
+	private PageTable<MappedPageImpl> cache;
+	
+	// indexes of pages deleted since the last delete of all pages, never allocated again
+	private Set<Long> deletedIndexes = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+	public OffHeapPageFactoryImpl(int pageSize, String pageDir) {
+		this.pageSize = pageSize;
+		this.pageDir = pageDir;
+		if (!this.pageDir.endsWith(File.separator)) {
+			this.pageDir += File.separator;
+		}
+		this.cache = new PageTable<MappedPageImpl>();
+	}
+
+	@Override
+	public IMappedPage acquirePage(long index) throws IOException {
+		MappedPageImpl mpi = cache.get(index);
+		if (mpi != null && mpi.pin()) {
+			return mpi;
+		}
+
+		synchronized(cache) {
+			mpi = cache.get(index);
+			if (mpi == null) {
+				if (deletedIndexes.contains(index)) {
+					throw new PageDeletedException("off-heap page " + this.getPageName(index) + " has been deleted");
+				}
+				try {
+					mpi = new MappedPageImpl(ByteBuffer.allocateDirect(this.pageSize), this.getPageName(index), index);
+				} catch (OutOfMemoryError e) {
+					throw new IOException("fail to allocate off-heap page " + this.getPageName(index) + " of size " + this.pageSize + ", " + e.getMessage());
+				}
+				cache.put(index, mpi);
+				if (logger.isDebugEnabled()) {
+					logger.debug("Off-heap page " + mpi.getPageFile() + " was just allocated.");
+				}
+			}
+			mpi.pin();
+		}
+		return mpi;
+	}
+
+	private String getPageName(long index) {
+		return this.pageDir + MappedPageFactoryImpl.PAGE_FILE_NAME + "-" + index;
+	}
+
+	@Override
+	public void releasePage(IMappedPage page) {
+		((MappedPageImpl)page).unpin();
+	}
+
+	@Override
+	public int getPageSize() {
+		return this.pageSize;
+	}
+
+	@Override
+	public String getPageDir() {
+		return this.pageDir;
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void deletePage(long index) throws IOException {
+		synchronized(cache) {
+			deletedIndexes.add(index);
+			MappedPageImpl page = cache.remove(index);
+			if (page != null) {
+				page.discard(); // the direct memory is freed by the last reader still holding it
+			}
+		}
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void deletePages(Set<Long> indexes) throws IOException {
+		if (indexes == null) return;
+		for(long index : indexes) {
+			this.deletePage(index);
+		}
+	}
+
+	/**
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void deleteAllPages() throws IOException {
+		this.releaseCachedPages();
+		deletedIndexes.clear(); // a fresh start, indexes are handed out again
+	}
+
+	/**
+	 * Off-heap pages have no back file, releasing them discards their content.
+	 * thread unsafe, caller need synchronization
+	 */
+	@Override
+	public void releaseCachedPages() throws IOException {
+		synchronized(cache) {
+			for(MappedPageImpl page : cache.values()) {
+				page.discard();
+			}
+			cache.clear();
+		}
+	}
+
+	@Override
+	public Set<Long> getPageIndexSetBefore(long timestamp) {
+		return Collections.emptySet(); // no modification time tracked
+	}
+
+	@Override
+	public void deletePagesBefore(long timestamp) throws IOException {
+		// no modification time tracked
+	}
+
+	@Override
+	public long getPageFileLastModifiedTime(long index) {
+		return -1L;
+	}
+
+	@Override
+	public long getFirstPageIndexBefore(long timestamp) {
+		return -1L;
+	}
+
+	@Override
+	public Set<Long> getExistingBackFileIndexSet() {
+		Set<Long> indexSet = new HashSet<Long>();
+		for(MappedPageImpl page : cache.values()) {
+			indexSet.add(page.getPageIndex());
+		}
+		return indexSet;
+	}
+
+	@Override
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return 0L; // off-heap pages hold the only copy of the data, they are never evicted
+	}
+
+	/**
+	 * Nothing to persist
+	 */
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public Set<String> getBackPageFileSet() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Total size of allocated off-heap pages
+	 */
+	@Override
+	public long getBackPageFileSize() {
+		return (long)cache.size() * this.pageSize;
+	}
+
+}
@@ -0,0 +1,18 @@
+package com.ctriposs.bigmap.page;
+
+import java.io.IOException;
+
+/**
+ * Thrown on acquiring a page which has been deleted, a late reader must not recreate its back file.
+ * 
+ * @author bulldog
+ *
+ */
+public class PageDeletedException extends IOException {
+
+	private static final long serialVersionUID = -2764018523749215372L;
+
+	public PageDeletedException(String message) {
+		super(message);
+	}
+}
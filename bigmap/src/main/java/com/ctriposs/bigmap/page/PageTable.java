@@ -0,0 +1,114 @@
+package com.ctriposs.bigmap.page;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Page table indexed by page number, lookups are lock free and don't box the index.
+ *
+ * Pages are kept in a growable directory of fixed size segments, indexes beyond the
+ * directory range(e.g. after the page index wrapped) go to an overflow map.
+ *
+ * Reads are thread safe, writes must be serialized by the caller.
+ *
+ * @author bulldog
+ *
+ * @param <T> page type
+ */
+class PageTable<T> {
+
+	// 2 ^ 10 = 1024 pages per segment
+	final static int SEGMENT_BITS = 10;
+	final static int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+	final static int SEGMENT_MASK = SEGMENT_SIZE - 1;
+	// 2 ^ 16 segments at most, 64M pages can be indexed directly
+	final static int MAX_DIRECTORY_SIZE = 1 << 16;
+	final static long MAX_DIRECT_INDEX = (long)MAX_DIRECTORY_SIZE << SEGMENT_BITS;
+
+	private volatile AtomicReferenceArray<AtomicReferenceArray<T>> directory = new AtomicReferenceArray<AtomicReferenceArray<T>>(1);
+	private final ConcurrentMap<Long, T> overflow = new ConcurrentHashMap<Long, T>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	public T get(long index) {
+		if (index < 0 || index >= MAX_DIRECT_INDEX) {
+			return overflow.get(index);
+		}
+		AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+		int segmentIndex = (int)(index >>> SEGMENT_BITS);
+		if (segmentIndex >= dir.length()) return null;
+		AtomicReferenceArray<T> segment = dir.get(segmentIndex);
+		if (segment == null) return null;
+		return segment.get((int)(index & SEGMENT_MASK));
+	}
+
+	public void put(long index, T value) {
+		T old;
+		if (index < 0 || index >= MAX_DIRECT_INDEX) {
+			old = overflow.put(index, value);
+		} else {
+			int segmentIndex = (int)(index >>> SEGMENT_BITS);
+			AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+			if (segmentIndex >= dir.length()) { // grow the directory, segments are shared with the old one
+				int newLength = dir.length();
+				while(newLength <= segmentIndex) newLength <<= 1;
+				AtomicReferenceArray<AtomicReferenceArray<T>> newDir = new AtomicReferenceArray<AtomicReferenceArray<T>>(Math.min(newLength, MAX_DIRECTORY_SIZE));
+				for(int i = 0; i < dir.length(); i++) {
+					newDir.set(i, dir.get(i));
+				}
+				directory = dir = newDir;
+			}
+			AtomicReferenceArray<T> segment = dir.get(segmentIndex);
+			if (segment == null) {
+				segment = new AtomicReferenceArray<T>(SEGMENT_SIZE);
+				dir.set(segmentIndex, segment);
+			}
+			old = segment.getAndSet((int)(index & SEGMENT_MASK), value);
+		}
+		if (old == null) size.incrementAndGet();
+	}
+
+	public T remove(long index) {
+		T old;
+		if (index < 0 || index >= MAX_DIRECT_INDEX) {
+			old = overflow.remove(index);
+		} else {
+			AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+			int segmentIndex = (int)(index >>> SEGMENT_BITS);
+			if (segmentIndex >= dir.length()) return null;
+			AtomicReferenceArray<T> segment = dir.get(segmentIndex);
+			if (segment == null) return null;
+			old = segment.getAndSet((int)(index & SEGMENT_MASK), null);
+		}
+		if (old != null) size.decrementAndGet();
+		return old;
+	}
+
+	public List<T> values() {
+		List<T> values = new ArrayList<T>(size.get());
+		AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+		for(int i = 0; i < dir.length(); i++) {
+			AtomicReferenceArray<T> segment = dir.get(i);
+			if (segment == null) continue;
+			for(int j = 0; j < SEGMENT_SIZE; j++) {
+				T value = segment.get(j);
+				if (value != null) values.add(value);
+			}
+		}
+		values.addAll(overflow.values());
+		return values;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public void clear() {
+		directory = new AtomicReferenceArray<AtomicReferenceArray<T>>(1);
+		overflow.clear();
+		size.set(0);
+	}
+}
@@ -0,0 +1,98 @@
+package com.ctriposs.bigmap.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frees the memory of direct and mapped buffers right away instead of waiting for GC, the strategy
+ * is selected at runtime: sun.misc.Unsafe.invokeCleaner on java 9+, DirectByteBuffer.cleaner() on older jdks.
+ *
+ * A cleaned buffer must not be accessed any more, callers must make sure nobody still reads it.
+ *
+ * @author bulldog
+ *
+ */
+public final class BufferCleaner {
+
+	private final static Logger logger = LoggerFactory.getLogger(BufferCleaner.class);
+
+	private static final boolean CLEAN_SUPPORTED;
+	// java 9+
+	private static final Object theUnsafe;
+	private static final Method invokeCleaner;
+	// java 8 and before
+	private static final Method directBufferCleaner;
+	private static final Method directBufferCleanerClean;
+	private static volatile boolean failureLogged = false;
+
+	static {
+		Object theUnsafeX = null;
+		Method invokeCleanerX = null;
+		Method directBufferCleanerX = null;
+		Method directBufferCleanerCleanX = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleanerX = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafeField.setAccessible(true);
+			theUnsafeX = theUnsafeField.get(null);
+		} catch (Exception e) {
+			invokeCleanerX = null;
+			try {
+				directBufferCleanerX = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
+				directBufferCleanerX.setAccessible(true);
+				directBufferCleanerCleanX = Class.forName("sun.misc.Cleaner").getMethod("clean");
+				directBufferCleanerCleanX.setAccessible(true);
+			} catch (Exception ex) {
+				directBufferCleanerX = null;
+				directBufferCleanerCleanX = null;
+			}
+		}
+		theUnsafe = theUnsafeX;
+		invokeCleaner = invokeCleanerX;
+		directBufferCleaner = directBufferCleanerX;
+		directBufferCleanerClean = directBufferCleanerCleanX;
+		CLEAN_SUPPORTED = invokeCleaner != null || directBufferCleanerClean != null;
+		if (!CLEAN_SUPPORTED) {
+			logger.warn("Cleaning of direct buffers is not supported on this jvm, their memory is only released on GC.");
+		}
+	}
+
+	private BufferCleaner() {
+	}
+
+	/**
+	 * Whether a cleaned buffer releases its memory right away, instead of waiting for GC
+	 *
+	 * @return true if cleaning is supported on this jvm
+	 */
+	public static boolean isSupported() {
+		return CLEAN_SUPPORTED;
+	}
+
+	/**
+	 * Free the memory of the buffer, unmap it if it is mapped, heap buffers are ignored
+	 *
+	 * @param buffer direct or mapped buffer
+	 */
+	public static void clean(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || !CLEAN_SUPPORTED) return;
+		try {
+			if (invokeCleaner != null) {
+				invokeCleaner.invoke(theUnsafe, buffer);
+			} else {
+				Object cleaner = directBufferCleaner.invoke(buffer);
+				if (cleaner != null) directBufferCleanerClean.invoke(cleaner);
+			}
+		} catch (Exception e) {
+			if (!failureLogged) { // a leaked buffer is not fatal, but shouldn't go unnoticed
+				failureLogged = true;
+				logger.warn("Fail to clean direct buffer, its memory is only released on GC.", e);
+			}
+		}
+	}
+}
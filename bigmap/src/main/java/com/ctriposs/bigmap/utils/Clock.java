@@ -0,0 +1,26 @@
+package com.ctriposs.bigmap.utils;
+
+/**
+ * Source of the current time for expiration and access time bookkeeping,
+ * a test can plug in its own to drive expiration deterministically.
+ * 
+ * @author bulldog
+ *
+ */
+public interface Clock {
+	
+	/**
+	 * The system clock, read on every call
+	 */
+	Clock SYSTEM = new Clock() {
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+	
+	/**
+	 * @return current time in ms
+	 */
+	long currentTimeMillis();
+}
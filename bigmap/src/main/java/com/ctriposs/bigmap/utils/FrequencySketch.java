@@ -0,0 +1,98 @@
+package com.ctriposs.bigmap.utils;
+
+/**
+ * Count-min sketch of 4 bit counters estimating the access frequency of hashes,
+ * counters are halved periodically so the history ages out (TinyLFU).
+ *
+ * Not thread safe, caller need synchronization.
+ *
+ * @author bulldog
+ *
+ */
+public class FrequencySketch {
+
+	private static final long[] SEEDS = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAX_COUNT = 15;
+
+	// 16 counters per long
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int size;
+
+	/**
+	 * @param expectedItems expected number of distinct hashes tracked
+	 */
+	public FrequencySketch(int expectedItems) {
+		int length = 1;
+		while(length < Math.max(expectedItems, 16) && length < (1 << 24)) {
+			length <<= 1;
+		}
+		this.table = new long[length];
+		this.tableMask = length - 1;
+		this.sampleSize = 10 * length;
+	}
+
+	/**
+	 * Estimated number of times the hash was seen, up to 15
+	 *
+	 * @param hash item hash
+	 * @return estimated frequency
+	 */
+	public int frequency(int hash) {
+		int h = spread(hash);
+		int start = (h & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for(int i = 0; i < 4; i++) {
+			int index = indexOf(h, i);
+			int count = (int)((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Record an occurrence of the hash
+	 *
+	 * @param hash item hash
+	 */
+	public void increment(int hash) {
+		int h = spread(hash);
+		int start = (h & 3) << 2;
+		boolean added = false;
+		for(int i = 0; i < 4; i++) {
+			int index = indexOf(h, i);
+			int offset = (start + i) << 2;
+			if (((table[index] >>> offset) & 0xfL) < MAX_COUNT) {
+				table[index] += 1L << offset;
+				added = true;
+			}
+		}
+		if (added && ++size == sampleSize) {
+			reset();
+		}
+	}
+
+	// halve all counters
+	private void reset() {
+		for(int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size >>>= 1;
+	}
+
+	private int indexOf(int h, int i) {
+		long hash = (h + SEEDS[i]) * SEEDS[i];
+		hash += hash >>> 32;
+		return ((int)hash) & tableMask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
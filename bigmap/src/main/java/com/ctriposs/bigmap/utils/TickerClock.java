@@ -0,0 +1,97 @@
+package com.ctriposs.bigmap.utils;
+
+import java.io.Closeable;
+
+/**
+ * Clock read from a volatile timestamp which a background thread refreshes every tick,
+ * so hot paths don't pay for a system clock call each time they need the time.
+ * 
+ * @author bulldog
+ *
+ */
+public class TickerClock implements Clock, Closeable {
+	
+	public static final long DEFAULT_TICK_MS = 1;
+	
+	// one ticker serves every map without a clock of its own, started on first use
+	private static TickerClock shared;
+	private static int sharedUsers = 0;
+	
+	private volatile long now;
+	private volatile boolean closed = false;
+	private final Thread ticker;
+	
+	/**
+	 * @param name name of the ticker thread
+	 * @param tickMs refresh interval in ms, the resolution of the clock
+	 */
+	public TickerClock(String name, final long tickMs) {
+		if (tickMs < 1) throw new IllegalArgumentException("tick " + tickMs + " < 1");
+		this.now = System.currentTimeMillis();
+		this.ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(!closed) {
+					now = System.currentTimeMillis();
+					try {
+						Thread.sleep(tickMs);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+		}, name);
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+
+	/**
+	 * Acquire the ticker shared by all users of the default clock, the ticker thread is started
+	 * by the first user, every acquire must be paired with a {@link #releaseShared(TickerClock)}
+	 * 
+	 * @return the shared ticker ticking every {@link #DEFAULT_TICK_MS} ms
+	 */
+	public static synchronized TickerClock acquireShared() {
+		if (shared == null) {
+			shared = new TickerClock("bigmap_clock", DEFAULT_TICK_MS);
+		}
+		sharedUsers++;
+		return shared;
+	}
+	
+	/**
+	 * Release the shared ticker, its thread is stopped when the last user releases it
+	 * 
+	 * @param clock the ticker returned by {@link #acquireShared()}
+	 */
+	public static synchronized void releaseShared(TickerClock clock) {
+		if (clock == null || clock != shared) return; // already stopped
+		if (--sharedUsers == 0) {
+			shared.close();
+			shared = null;
+		}
+	}
+	
+	/**
+	 * Whether the ticker thread is still running
+	 * 
+	 * @return true until closed
+	 */
+	public boolean isRunning() {
+		return !closed;
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return now;
+	}
+	
+	/**
+	 * Stop the ticker thread, the clock stays at the last tick
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		ticker.interrupt();
+	}
+}
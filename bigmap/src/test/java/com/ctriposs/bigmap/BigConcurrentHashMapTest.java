@@ -4,6 +4,17 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -11,6 +22,7 @@ import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Test;
 
+import com.ctriposs.bigmap.utils.Clock;
 import com.ctriposs.bigmap.utils.FileUtil;
 
 public class BigConcurrentHashMapTest {
@@ -262,6 +274,397 @@ public class BigConcurrentHashMapTest {
         }
     }
     
+    /**
+     * values larger than the max slot length are stored in chunks
+     * @throws IOException
+     */
+    @Test
+    public void testLargeValue() throws IOException {
+        map = new BigConcurrentHashMapImpl(testDir, "testLargeValue");
+
+        byte[] value = new byte[MapEntryFactoryImpl.MAX_DATA_SLOT_LENGTH * 2 + 1024];
+        new Random().nextBytes(value);
+        map.put("big".getBytes(), value);
+        map.put("small".getBytes(), "A".getBytes());
+        assertTrue(Arrays.equals(value, map.get("big".getBytes())));
+        assertEquals("A", new String(map.get("small".getBytes())));
+
+        InputStream is = map.getValueStream("big".getBytes());
+        byte[] buf = new byte[64 * 1024];
+        int offset = 0;
+        for(int n = is.read(buf); n > 0; n = is.read(buf)) {
+        	for(int i = 0; i < n; i++) {
+        		assertEquals(value[offset + i], buf[i]);
+        	}
+        	offset += n;
+        }
+        assertEquals(value.length, offset);
+
+        long freeCount = map.getMemoryMappedFileStats().getFreeEntryCount();
+        assertTrue(Arrays.equals(value, map.remove("big".getBytes())));
+        assertEquals(freeCount + 4, map.getMemoryMappedFileStats().getFreeEntryCount()); // header + 3 chunks
+        assertNull(map.getValueStream("big".getBytes()));
+
+        map.put("big".getBytes(), value);
+        map.close();
+        map = new BigConcurrentHashMapImpl(testDir, "testLargeValue", new BigConfig().setReloadOnStartup(true));
+        assertEquals(2, map.size());
+        assertTrue(Arrays.equals(value, map.get("big".getBytes())));
+    }
+
+    @Test
+    public void testValueStreamOfReusedSlot() throws IOException {
+        BigConfig config = new BigConfig().setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return 1000L; // a reuse within the same tick
+			}
+		});
+        map = new BigConcurrentHashMapImpl(testDir, "testValueStreamOfReusedSlot", config);
+        
+        map.put("a".getBytes(), new byte[100]);
+        InputStream is = map.getValueStream("a".getBytes());
+        assertEquals(10, is.read(new byte[10]));
+        map.remove("a".getBytes());
+        map.put("b".getBytes(), new byte[100]); // exact match reuse of the slot
+        try {
+        	is.read(new byte[10]);
+        	fail("read of a reused slot must fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * pages beyond the max number of mapped pages are unmapped and mapped again on access
+     * @throws IOException
+     */
+    @Test
+    public void testBoundedMappedPages() throws IOException {
+        BigConfig config = new BigConfig().setIndexItemsPerPageBits(6).setDataPageSize(4 * 1024)
+        		.setMaxMappedIndexPages(2).setMaxMappedDataPages(2);
+        map = new BigConcurrentHashMapImpl(testDir, "testBoundedMappedPages", config);
+
+        for(int i = 0; i < 1000; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        for(int i = 0; i < 1000; i++) {
+        	assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        }
+    }
+
+    /**
+     * an off-heap map never touches the disk
+     * @throws IOException
+     */
+    @Test
+    public void testOffHeap() throws IOException {
+        BigConfig config = new BigConfig().setStorageMode(StorageMode.OFFHEAP).setDataPageSize(64 * 1024).setIndexItemsPerPageBits(10);
+        map = new BigConcurrentHashMapImpl(testDir, "testOffHeap", config);
+
+        for(int i = 0; i < 1000; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        for(int i = 0; i < 1000; i++) {
+        	assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        }
+        map.remove("1".getBytes());
+        assertNull(map.get("1".getBytes()));
+        assertEquals(999, map.size());
+        assertTrue(map.getMemoryMappedFileStats().getBackFileUsed() > 0);
+        assertFalse(new File(testDir, "testOffHeap").exists());
+
+        map.close();
+        map = new BigConcurrentHashMapImpl(testDir, "testOffHeap", config);
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testFileChannel() throws IOException {
+        BigConfig config = new BigConfig().setStorageMode(StorageMode.FILE_CHANNEL).setDataPageSize(64 * 1024).setIndexItemsPerPageBits(10).setReloadOnStartup(true);
+        map = new BigConcurrentHashMapImpl(testDir, "testFileChannel", config);
+
+        for(int i = 0; i < 1000; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        for(int i = 0; i < 1000; i++) {
+        	assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        }
+        assertTrue(map.getMemoryMappedFileStats().getDataPageReadBytes() > 0);
+        assertTrue(map.getMemoryMappedFileStats().getDataPageWriteBytes() > 0);
+
+        // data survives restart
+        map.close();
+        map = new BigConcurrentHashMapImpl(testDir, "testFileChannel", config);
+        assertEquals(1000, map.size());
+        for(int i = 0; i < 1000; i++) {
+        	assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        }
+    }
+
+    @Test
+    public void testHotTier() throws IOException {
+        BigConfig config = new BigConfig().setMaxHotTierBytes(2 * 1024).setConcurrencyLevel(1);
+        map = new BigConcurrentHashMapImpl(testDir, "testHotTier", config);
+
+        for(int i = 0; i < 1000; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        // first read promotes, put counts as the previous access
+        for(int i = 0; i < 1000; i++) {
+        	assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        }
+        assertEquals(0, map.getHotTierHitCount());
+        assertTrue(map.getHotTierUsedBytes() > 0);
+        assertTrue(map.getHotTierUsedBytes() <= 2 * 1024);
+
+        // recently read entries stay hot, older ones were demoted
+        assertEquals("item999", new String(map.get("999".getBytes())));
+        assertEquals(1, map.getHotTierHitCount());
+
+        // hot copies follow updates and removals
+        map.put("999".getBytes(), "updated".getBytes());
+        assertEquals("updated", new String(map.get("999".getBytes())));
+        assertEquals("updated", new String(map.get("999".getBytes())));
+        assertNotNull(map.remove("999".getBytes()));
+        assertNull(map.get("999".getBytes()));
+        assertEquals(999, map.size());
+
+        map.clear();
+        assertEquals(0, map.getHotTierUsedBytes());
+    }
+
+    @Test
+    public void testNearCache() throws IOException {
+        BigConfig config = new BigConfig().setMaxNearCacheBytes(64 * 1024).setConcurrencyLevel(1);
+        map = new BigConcurrentHashMapImpl(testDir, "testNearCache", config);
+        INearCacheStats stats = map.getNearCacheStats();
+
+        for(int i = 0; i < 1000; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        for(int round = 0; round < 3; round++) {
+        	for(int i = 0; i < 100; i++) {
+        		assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        	}
+        }
+        assertEquals(100, stats.getNearCacheMissCount());
+        assertEquals(200, stats.getNearCacheHitCount());
+        assertTrue(stats.getNearCacheUsedBytes() > 0);
+
+        // returned values are copies
+        map.get("1".getBytes())[0] = 'x';
+        assertEquals("item1", new String(map.get("1".getBytes())));
+
+        // writes invalidate
+        map.put("1".getBytes(), "updated".getBytes());
+        assertEquals("updated", new String(map.get("1".getBytes())));
+        map.replace("2".getBytes(), "replaced".getBytes());
+        assertEquals("replaced", new String(map.get("2".getBytes())));
+        map.remove("3".getBytes());
+        assertNull(map.get("3".getBytes()));
+
+        map.clear();
+        assertEquals(0, stats.getNearCacheUsedBytes());
+    }
+
+    @Test
+    public void testHotEntriesNotNearCached() throws IOException {
+        BigConfig config = new BigConfig().setMaxHotTierBytes(64 * 1024).setMaxNearCacheBytes(64 * 1024).setConcurrencyLevel(1);
+        map = new BigConcurrentHashMapImpl(testDir, "testHotEntriesNotNearCached", config);
+        INearCacheStats stats = map.getNearCacheStats();
+
+        for(int i = 0; i < 100; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        // promoted on the first read, then served by the hot tier, never copied to the near cache as well
+        for(int round = 0; round < 3; round++) {
+        	for(int i = 0; i < 100; i++) {
+        		assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        	}
+        }
+        assertEquals(200, map.getHotTierHitCount());
+        assertEquals(300, stats.getNearCacheMissCount());
+        assertEquals(0, stats.getNearCacheHitCount());
+        assertEquals(0, stats.getNearCacheUsedBytes());
+    }
+
+    @Test
+    public void testNearCacheBounded() throws IOException {
+        BigConfig config = new BigConfig().setMaxNearCacheBytes(4 * 1024).setConcurrencyLevel(1);
+        map = new BigConcurrentHashMapImpl(testDir, "testNearCacheBounded", config);
+
+        for(int i = 0; i < 10000; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        // a small frequently read set stays cached while a scan goes through
+        for(int round = 0; round < 10; round++) {
+        	for(int i = 0; i < 20; i++) {
+        		map.get(String.valueOf(i).getBytes());
+        	}
+        }
+        for(int i = 0; i < 10000; i++) {
+        	assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        	if (i % 500 == 0) { // hot set keeps being read, its frequency ages out otherwise
+        		for(int j = 0; j < 20; j++) {
+        			map.get(String.valueOf(j).getBytes());
+        		}
+        	}
+        }
+        assertTrue(map.getNearCacheStats().getNearCacheUsedBytes() <= 4 * 1024);
+        long hits = map.getNearCacheStats().getNearCacheHitCount();
+        for(int i = 0; i < 20; i++) {
+        	map.get(String.valueOf(i).getBytes());
+        }
+        assertEquals(hits + 20, map.getNearCacheStats().getNearCacheHitCount());
+    }
+
+    @Test
+    public void testMaxEntries() throws IOException {
+        BigConfig config = new BigConfig().setMaxEntries(100).setConcurrencyLevel(1);
+        map = new BigConcurrentHashMapImpl(testDir, "testMaxEntries", config);
+
+        for(int i = 0; i < 1000; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        	assertEquals("item" + i, new String(map.get(String.valueOf(i).getBytes())));
+        }
+        assertEquals(100, map.size());
+        assertEquals(900, map.getEvictedEntryCount());
+        assertEquals(100, map.getMemoryMappedFileStats().getTotalEntryCount() - map.getMemoryMappedFileStats().getFreeEntryCount());
+    }
+
+    @Test
+    public void testRemovalListener() throws IOException, InterruptedException {
+    	final List<RemovalNotification> notifications = Collections.synchronizedList(new ArrayList<RemovalNotification>());
+        BigConfig config = new BigConfig().setMaxEntries(10).setConcurrencyLevel(1).setRemovalValueDelivered(true).setRemovalBatchSize(4)
+        		.setRemovalListener(new IRemovalListener() {
+					@Override
+					public void onRemoval(List<RemovalNotification> batch) {
+						assertTrue(batch.size() <= 4);
+						notifications.addAll(batch);
+					}
+				});
+        map = new BigConcurrentHashMapImpl(testDir, "testRemovalListener", config);
+
+        for(int i = 0; i <= 10; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        assertEquals("item10", new String(map.remove("10".getBytes()))); // the last written is never evicted
+        map.put("expired".getBytes(), "E".getBytes(), 100);
+        Thread.sleep(200);
+        assertNull(map.get("expired".getBytes()));
+        map.put("replaced".getBytes(), "R".getBytes());
+        map.put("replaced".getBytes(), "R2".getBytes()); // not notified
+        map.close();
+        map = null;
+        
+        int evicted = 0;
+        int removed = 0;
+        int expired = 0;
+        for(RemovalNotification notification : notifications) {
+        	if (notification.getCause() == RemovalCause.EVICTED) {
+        		evicted++;
+        		assertEquals("item" + new String(notification.getKey()), new String(notification.getValue()));
+        	} else if (notification.getCause() == RemovalCause.REMOVED) {
+        		removed++;
+        		assertEquals("10", new String(notification.getKey()));
+        		assertEquals("item10", new String(notification.getValue()));
+        	} else {
+        		expired++;
+        		assertEquals("expired", new String(notification.getKey()));
+        	}
+        }
+        assertEquals(1, evicted);
+        assertEquals(1, removed);
+        assertEquals(1, expired);
+    }
+
+    @Test
+    public void testIteration() throws IOException, InterruptedException {
+        BigConfig config = new BigConfig().setMaxNearCacheBytes(1024 * 1024);
+        map = new BigConcurrentHashMapImpl(testDir, "testIteration", config);
+        
+        for(int i = 0; i < 3000; i++) {
+        	map.put(String.valueOf(i).getBytes(), ("item" + i).getBytes());
+        }
+        for(int i = 0; i < 3000; i += 3) {
+        	map.remove(String.valueOf(i).getBytes());
+        }
+        for(int i = 1; i < 3000; i += 3) {
+        	map.put(String.valueOf(i).getBytes(), ("new" + i).getBytes()); // rewritten, maybe to a freed slot
+        }
+        map.put("large".getBytes(), new byte[MapEntryFactoryImpl.MAX_DATA_SLOT_LENGTH * 2]); // chunked
+        map.put("expired".getBytes(), "E".getBytes(), 1);
+        Thread.sleep(10);
+        
+        Set<String> keys = new HashSet<String>();
+        Iterator<byte[]> keyIterator = map.keyIterator();
+        while(keyIterator.hasNext()) {
+        	assertTrue(keys.add(new String(keyIterator.next())));
+        }
+        assertEquals(2001, keys.size());
+        assertTrue(keys.contains("large"));
+        assertFalse(keys.contains("0"));
+        assertFalse(keys.contains("expired"));
+        
+        final Map<String, String> entries = new HashMap<String, String>();
+        map.forEach(new IEntryConsumer() {
+			@Override
+			public void accept(byte[] key, byte[] value) {
+				if (!"large".equals(new String(key))) {
+					entries.put(new String(key), new String(value));
+				}
+			}
+		});
+        assertEquals(2000, entries.size());
+        assertEquals("new1", entries.get("1"));
+        assertEquals("item2", entries.get("2"));
+        
+        Iterator<Map.Entry<byte[], byte[]>> entryIterator = map.entryIterator();
+        while(entryIterator.hasNext()) {
+        	Map.Entry<byte[], byte[]> entry = entryIterator.next();
+        	if (new String(entry.getKey()).startsWith("2")) {
+        		entryIterator.remove();
+        	}
+        }
+        assertNull(map.get("2".getBytes()));
+        assertEquals("new1", new String(map.get("1".getBytes())));
+    }
+
+    @Test
+    public void testMaxBytes() throws IOException {
+        BigConfig config = new BigConfig().setMaxBytes(10 * 1024).setConcurrencyLevel(1);
+        map = new BigConcurrentHashMapImpl(testDir, "testMaxBytes", config);
+
+        byte[] value = new byte[100];
+        for(int i = 0; i < 1000; i++) {
+        	map.put(String.valueOf(i).getBytes(), value);
+        }
+        assertTrue(map.getMemoryMappedFileStats().getTotalRealUsedSlotSize() <= 10 * 1024);
+        assertTrue(map.size() > 90);
+        assertNotNull(map.get("999".getBytes()));
+    }
+
+    @Test
+    public void testAccessTimeWriteInterval() throws IOException, InterruptedException {
+        BigConfig config = new BigConfig().setAccessTimeWriteIntervalMs(10 * 1000);
+        map = new BigConcurrentHashMapImpl(testDir, "testAccessTimeWriteInterval", config);
+
+        map.put("1".getBytes(), "A".getBytes(), 400);
+        MapEntry me = map.mapEntryFactory.findMapEntryByIndex(0);
+        long storedTime = me.getLastAccessedTime();
+
+        // reads keep the access time on heap, the entry still slides
+        for(int i = 0; i < 3; i++) {
+        	Thread.sleep(200);
+        	assertEquals("A", new String(map.get("1".getBytes())));
+        }
+        assertEquals(storedTime, me.getLastAccessedTime());
+
+        // clearing, as on close, writes the access time kept on heap back
+        map.clear();
+        assertTrue(me.getLastAccessedTime() >= storedTime + 600);
+    }
+
     /**
      * fail with message "should throw exception"
      */
@@ -0,0 +1,74 @@
+package com.ctriposs.bigmap;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ctriposs.bigmap.BigConcurrentHashMapImpl.HashEntry;
+
+public class ExpiryWheelTest {
+
+	@Test
+	public void testDueInOrder() {
+		ExpiryWheel wheel = new ExpiryWheel(10, 0);
+		// deadlines spread over every level and beyond
+		long[] deadlines = { 10, 100, 630, 640, 5000, 41000, 2700000, 200000000L };
+		HashEntry[] entries = new HashEntry[deadlines.length];
+		for(int i = 0; i < deadlines.length; i++) {
+			entries[i] = new HashEntry(i, i, null);
+			wheel.schedule(entries[i], deadlines[i]);
+		}
+		assertEquals(deadlines.length, wheel.size());
+
+		long now = 0;
+		for(int i = 0; i < deadlines.length; i++) {
+			// nothing is due before its deadline
+			List<HashEntry> due = wheel.advance(deadlines[i] - 10);
+			assertTrue(due.isEmpty());
+			due = wheel.advance(deadlines[i]);
+			assertEquals("deadline " + deadlines[i], 1, due.size());
+			assertSame(entries[i], due.get(0));
+			now = deadlines[i];
+		}
+		assertEquals(0, wheel.size());
+		assertTrue(wheel.advance(now + 1000000).isEmpty());
+	}
+
+	@Test
+	public void testUnscheduleAndReschedule() {
+		ExpiryWheel wheel = new ExpiryWheel(10, 1000);
+		HashEntry a = new HashEntry(1, 1, null);
+		HashEntry b = new HashEntry(2, 2, null);
+		wheel.schedule(a, 1500);
+		wheel.schedule(b, 1500);
+		wheel.unschedule(a);
+		wheel.unschedule(a); // no-op
+		wheel.schedule(b, 9000); // moved
+		assertEquals(1, wheel.size());
+
+		assertTrue(wheel.advance(2000).isEmpty());
+		List<HashEntry> due = wheel.advance(9000);
+		assertEquals(1, due.size());
+		assertSame(b, due.get(0));
+
+		// a deadline in the past comes due on the next tick
+		wheel.schedule(a, 0);
+		assertEquals(1, wheel.advance(9010).size());
+	}
+
+	@Test
+	public void testBoundedAdvance() {
+		ExpiryWheel wheel = new ExpiryWheel(10, 0);
+		for(int i = 0; i < 100; i++) {
+			wheel.schedule(new HashEntry(i, i, null), i < 50 ? 100 : 200);
+		}
+		// resumes in the middle of a bucket
+		assertEquals(30, wheel.advance(1000, 30).size());
+		assertEquals(30, wheel.advance(1000, 30).size());
+		assertEquals(30, wheel.advance(1000, 30).size());
+		assertEquals(10, wheel.advance(1000, 30).size());
+		assertEquals(0, wheel.size());
+	}
+}
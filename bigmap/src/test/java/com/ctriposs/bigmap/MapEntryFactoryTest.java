@@ -266,6 +266,142 @@ public class MapEntryFactoryTest {
 		mapEntryPool.acquire(1);
 	}
 	
+	@Test
+	public void TestConfigurableGeometry() throws IOException {
+		BigConfig config = new BigConfig().setIndexItemsPerPageBits(10).setDataPageSize(64 * 1024);
+		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestConfigurableGeometry", config);
+		
+		for(int i = 0; i < 100; i++) {
+			MapEntry me = mapEntryPool.acquire(16, 1008);
+			me.putEntryKey(new byte[16]);
+		}
+		// 1 index page of 64K, 2 data pages of 64K
+		assertEquals(64 * 1024 * 3, mapEntryPool.getBackFileUsed());
+		
+		try {
+			mapEntryPool.acquire(64 * 1024 + 1);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// ignore
+		}
+		
+		// value larger than a data page goes to chunks
+		MapEntry me = mapEntryPool.acquire(16, 200 * 1024);
+		assertTrue(me.isChunked());
+		assertEquals(4, me.getChunkCount());
+		mapEntryPool.close();
+		
+		// geometry recorded in meta data wins over the config
+		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestConfigurableGeometry", new BigConfig());
+		assertEquals(10, ((MapEntryFactoryImpl)mapEntryPool).getIndexItemsPerPageBits());
+		assertEquals(64 * 1024, ((MapEntryFactoryImpl)mapEntryPool).getDataPageSize());
+		me = mapEntryPool.acquire(1024);
+		assertEquals(105, me.getIndex());
+	}
+
+	@Test
+	public void TestPageTailReuse() throws IOException {
+		BigConfig config = new BigConfig().setDataPageSize(64 * 1024);
+		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestPageTailReuse", config);
+
+		MapEntry first = mapEntryPool.acquire(40 * 1024);
+		MapEntry second = mapEntryPool.acquire(30 * 1024); // rolls to next page, leaves a 24K tail
+		assertEquals(0, first.getDataPageIndex());
+		assertEquals(1, second.getDataPageIndex());
+		assertEquals(24 * 1024, mapEntryPool.getTotalPageTailWastedSize());
+
+		MapEntry third = mapEntryPool.acquire(10 * 1024); // best fit goes to the tail
+		assertEquals(0, third.getDataPageIndex());
+		assertEquals(40 * 1024, third.getDataSlotOffset());
+		assertEquals(14 * 1024, mapEntryPool.getTotalPageTailWastedSize());
+
+		MapEntry fourth = mapEntryPool.acquire(20 * 1024); // no tail fits, appended to the head
+		assertEquals(1, fourth.getDataPageIndex());
+		assertEquals(30 * 1024, fourth.getDataSlotOffset());
+		mapEntryPool.close();
+
+		// data head is restored from meta data, not from the last index item
+		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestPageTailReuse", config);
+		assertEquals(0, mapEntryPool.getTotalPageTailWastedSize());
+		MapEntry fifth = mapEntryPool.acquire(1024);
+		assertEquals(1, fifth.getDataPageIndex());
+		assertEquals(50 * 1024, fifth.getDataSlotOffset());
+	}
+
+	@Test
+	public void TestPrepareNextPage() throws IOException, InterruptedException {
+		BigConfig config = new BigConfig().setIndexItemsPerPageBits(6).setDataPageSize(64 * 1024).setPreTouchPages(true);
+		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestPrepareNextPage", config);
+		MapEntryFactoryImpl factory = (MapEntryFactoryImpl)mapEntryPool;
+
+		for(int i = 0; i < 49; i++) { // head passes 3/4 of index page 0 and data page 0
+			MapEntry me = mapEntryPool.acquire(16, 1008);
+			me.putEntryKey(new byte[16]);
+		}
+		for(int i = 0; i < 100 && (factory.dataPageFactory.getCacheSize() < 2 || factory.indexPageFactory.getCacheSize() < 2); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, factory.dataPageFactory.getCacheSize());
+		assertEquals(2, factory.indexPageFactory.getCacheSize());
+		assertTrue(factory.dataPageFactory.getExistingBackFileIndexSet().contains(1L));
+
+		for(int i = 0; i < 20; i++) { // roll to the prepared pages
+			MapEntry me = mapEntryPool.acquire(16, 1008);
+			me.putEntryKey(new byte[16]);
+		}
+		assertEquals(2, factory.dataPageFactory.getCacheSize());
+	}
+
+	@Test
+	public void TestReusePreparedPageAfterReopen() throws IOException, InterruptedException {
+		BigConfig config = new BigConfig().setDataPageSize(64 * 1024);
+		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestReusePreparedPageAfterReopen", config);
+		MapEntryFactoryImpl factory = (MapEntryFactoryImpl)mapEntryPool;
+
+		for(int i = 0; i < 50; i++) { // head passes 3/4 of data page 0, page 1 is mapped ahead
+			MapEntry me = mapEntryPool.acquire(16, 1008);
+			me.putEntryKey(new byte[16]);
+		}
+		for(int i = 0; i < 100 && !factory.dataPageFactory.getExistingBackFileIndexSet().contains(1L); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(factory.dataPageFactory.getExistingBackFileIndexSet().contains(1L));
+		mapEntryPool.close();
+
+		// the head rolls to the prepared page left by the previous run, no page file is orphaned
+		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestReusePreparedPageAfterReopen", config);
+		factory = (MapEntryFactoryImpl)mapEntryPool;
+		MapEntry me = null;
+		for(int i = 0; i < 20; i++) {
+			me = mapEntryPool.acquire(16, 1008);
+			me.putEntryKey(new byte[16]);
+		}
+		assertEquals(1, me.getDataPageIndex());
+		assertFalse(factory.dataPageFactory.getExistingBackFileIndexSet().contains(2L));
+	}
+
+	@Test
+	public void TestRecoverHeadAfterCheckpoint() throws IOException {
+		BigConfig config = new BigConfig().setDataPageSize(64 * 1024);
+		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestRecoverHeadAfterCheckpoint", config);
+
+		int count = MapEntryFactoryImpl.META_DATA_CHECKPOINT_INTERVAL + 10;
+		for(int i = 0; i < count; i++) {
+			mapEntryPool.acquire(1024);
+		}
+
+		// open again without close, as after a crash, heads after the last checkpoint are recovered from the index
+		IMapEntryFactory recovered = new MapEntryFactoryImpl(testDir, "TestRecoverHeadAfterCheckpoint", config);
+		try {
+			MapEntry me = recovered.acquire(1024);
+			assertEquals(count, me.getIndex());
+			assertEquals(count / 64, me.getDataPageIndex());
+			assertEquals((count % 64) * 1024, me.getDataSlotOffset());
+		} finally {
+			recovered.close();
+		}
+	}
+
 	@Test
 	public void TestAcquireAndReleaseRandomSize() throws IOException {
 		mapEntryPool = new MapEntryFactoryImpl(testDir, "TestAcquireAndReleaseRandomSize");
@@ -4,11 +4,14 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.After;
 import org.junit.Test;
 
+import com.ctriposs.bigmap.utils.Clock;
 import com.ctriposs.bigmap.utils.FileUtil;
+import com.ctriposs.bigmap.utils.TickerClock;
 
 public class PurgeTest {
 	
@@ -125,6 +128,266 @@ public class PurgeTest {
         assertEquals(0, map.size()); // no left
 	}
 
+	@Test
+	public void slicedPurgeTest() throws IOException, InterruptedException {
+		BigConfig config = new BigConfig().setPurgeIntervalInMs(1000L * 60).setPurgeSliceSize(10).setConcurrencyLevel(1);
+		map = new BigConcurrentHashMapImpl(testDir, "slicedPurgeTest", config);
+		
+		for(int i = 0; i < 1000; i++) {
+			map.put(("key" + i).getBytes(), ("value" + i).getBytes(), i % 2 == 0 ? 200 : 0);
+		}
+		Thread.sleep(500);
+		map.purge();
+		assertEquals(500, map.size());
+		assertEquals("value1", new String(map.get("key1".getBytes())));
+	}
+
+	@Test
+	public void parallelPurgeTest() throws IOException, InterruptedException {
+		BigConfig config = new BigConfig().setPurgeIntervalInMs(1000L * 60).setPurgeThreads(4);
+		map = new BigConcurrentHashMapImpl(testDir, "parallelPurgeTest", config);
+		assertNotNull(map.purgeExecutor);
+		
+		for(int i = 0; i < 10000; i++) {
+			map.put(("key" + i).getBytes(), ("value" + i).getBytes(), i % 2 == 0 ? 200 : 0);
+		}
+		Thread.sleep(500);
+		assertEquals(5000, map.purge());
+		assertEquals(5000, map.size());
+		
+		map.close();
+		assertNull(map.purgeExecutor);
+		map = null;
+	}
+
+	@Test
+	public void bucketPurgeTest() throws IOException, InterruptedException {
+		BigConfig config = new BigConfig().setPurgeIntervalInMs(1000L * 60).setExpiryBucketMs(100L).setExpiryPolicy(ExpiryPolicy.AFTER_WRITE).setDataPageSize(MapEntryFactoryImpl.MIN_DATA_PAGE_SIZE);
+		map = new BigConcurrentHashMapImpl(testDir, "bucketPurgeTest", config);
+		MapEntryFactoryImpl factory = (MapEntryFactoryImpl)map.mapEntryFactory;
+		
+		for(int i = 0; i < 1000; i++) {
+			map.put(("key" + i).getBytes(), ("value" + i).getBytes(), i % 2 == 0 ? 200 : 0);
+		}
+		
+		// bucketed entries expire after write
+		map.put("read".getBytes(), "value".getBytes(), 300);
+		int pageCount = factory.dataPageFactory.getExistingBackFileIndexSet().size();
+		Thread.sleep(150);
+		assertEquals("value", new String(map.get("read".getBytes())));
+		Thread.sleep(250);
+		assertNull(map.get("read".getBytes()));
+		
+		assertEquals(500, map.purge());
+		assertEquals(500, map.size());
+		assertEquals("value1", new String(map.get("key1".getBytes())));
+		assertTrue(factory.getTotalDeletedBucketPageCounter() > 0);
+		assertEquals(pageCount - factory.getTotalDeletedBucketPageCounter(), factory.dataPageFactory.getExistingBackFileIndexSet().size());
+		
+		// index items of the deleted entries are reused
+		long arrayHead = factory.arrayHeadIndex.get();
+		for(int i = 0; i < 1000; i += 2) {
+			map.put(("key" + i).getBytes(), ("value" + i).getBytes(), 1000);
+		}
+		assertEquals(arrayHead, factory.arrayHeadIndex.get());
+		assertEquals(1000, map.size());
+		assertEquals("value0", new String(map.get("key0".getBytes())));
+		
+		// bucket pages are restored on reload, expired entries are dropped
+		map.close();
+		map = new BigConcurrentHashMapImpl(testDir, "bucketPurgeTest", config.setReloadOnStartup(true));
+		assertEquals(1000, map.size());
+		assertEquals("value2", new String(map.get("key2".getBytes())));
+		
+		// pages rolled to after reload go past the restored bucket pages
+		for(int i = 0; i < 1000; i++) {
+			map.put(("more" + i).getBytes(), ("value" + i).getBytes());
+		}
+		for(int i = 0; i < 1000; i += 2) {
+			assertEquals("value" + i, new String(map.get(("key" + i).getBytes())));
+		}
+		for(int i = 0; i < 1000; i++) {
+			map.remove(("more" + i).getBytes());
+		}
+		map.close();
+		Thread.sleep(1100);
+		map = new BigConcurrentHashMapImpl(testDir, "bucketPurgeTest", config);
+		assertEquals(500, map.size());
+		map.purge();
+		assertTrue(((MapEntryFactoryImpl)map.mapEntryFactory).getTotalDeletedBucketPageCounter() > 0);
+	}
+
+	@Test
+	public void clockTest() throws IOException {
+		final AtomicLong now = new AtomicLong(1000L * 1000);
+		BigConfig config = new BigConfig().setPurgeIntervalInMs(1000L * 60).setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now.get();
+			}
+		});
+		map = new BigConcurrentHashMapImpl(testDir, "clockTest", config);
+		assertNull(map.ticker);
+		
+		map.put("1".getBytes(), "A".getBytes(), 1000);
+		map.put("2".getBytes(), "B".getBytes(), 5000);
+		map.put("3".getBytes(), "C".getBytes(), 5000);
+		
+		// expiration follows the clock only
+		now.addAndGet(2000);
+		assertNull(map.get("1".getBytes()));
+		assertEquals("B", new String(map.get("2".getBytes())));
+		assertEquals(2, map.size());
+		
+		now.addAndGet(6000); // the read of 2 extended it
+		assertEquals(2, map.purge());
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void expiryPolicyTest() throws IOException {
+		final AtomicLong now = new AtomicLong(1000L * 1000);
+		BigConfig config = new BigConfig().setPurgeIntervalInMs(1000L * 60).setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now.get();
+			}
+		});
+		map = new BigConcurrentHashMapImpl(testDir, "expiryPolicyTest", config);
+		
+		map.put("access".getBytes(), "A".getBytes(), 1000, ExpiryPolicy.AFTER_ACCESS);
+		map.put("write".getBytes(), "W".getBytes(), 1000, ExpiryPolicy.AFTER_WRITE);
+		map.put("deadline".getBytes(), "D".getBytes(), now.get() + 1000, ExpiryPolicy.DEADLINE);
+		
+		now.addAndGet(600);
+		assertEquals("A", new String(map.get("access".getBytes())));
+		assertEquals("W", new String(map.get("write".getBytes())));
+		assertEquals("D", new String(map.get("deadline".getBytes())));
+		
+		// only the entry expiring after access was extended by the reads
+		now.addAndGet(600);
+		assertEquals(2, map.purge());
+		assertEquals(1, map.size());
+		assertEquals("A", new String(map.get("access".getBytes())));
+	}
+
+	@Test
+	public void expireTest() throws IOException {
+		final AtomicLong now = new AtomicLong(1000L * 1000);
+		BigConfig config = new BigConfig().setPurgeIntervalInMs(1000L * 60).setExpiryBucketMs(100L).setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now.get();
+			}
+		});
+		map = new BigConcurrentHashMapImpl(testDir, "expireTest", config);
+		
+		map.put("access".getBytes(), "A".getBytes(), 1000, ExpiryPolicy.AFTER_ACCESS);
+		map.put("write".getBytes(), "W".getBytes(), 1000, ExpiryPolicy.AFTER_WRITE);
+		map.put("persist".getBytes(), "P".getBytes(), 1000, ExpiryPolicy.AFTER_WRITE);
+		map.put("touch".getBytes(), "T".getBytes(), 1000, ExpiryPolicy.AFTER_ACCESS);
+		
+		now.addAndGet(600);
+		assertTrue(map.expire("access".getBytes(), 2000));
+		assertTrue(map.expire("write".getBytes(), 2000)); // moved out of its bucket page
+		assertTrue(map.persist("persist".getBytes()));
+		assertTrue(map.touch("touch".getBytes()));
+		assertFalse(map.expire("absent".getBytes(), 2000));
+		assertFalse(map.touch("absent".getBytes()));
+		
+		now.addAndGet(1000);
+		assertEquals(0, map.purge());
+		assertEquals(4, map.size());
+		
+		now.addAndGet(1500);
+		assertEquals(3, map.purge());
+		assertEquals(1, map.size());
+		assertEquals("P", new String(map.get("persist".getBytes())));
+		assertFalse(map.touch("write".getBytes()));
+	}
+
+	@Test
+	public void pastDeadlineTest() throws IOException {
+		final AtomicLong now = new AtomicLong(1000L * 1000);
+		BigConfig config = new BigConfig().setPurgeIntervalInMs(1000L * 60).setExpiryBucketMs(100L).setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now.get();
+			}
+		});
+		map = new BigConcurrentHashMapImpl(testDir, "pastDeadlineTest", config);
+		MapEntryFactoryImpl factory = (MapEntryFactoryImpl)map.mapEntryFactory;
+		
+		// an entry due within the current bucket or already past is not bucketed
+		map.put("past".getBytes(), "P".getBytes(), now.get() - 1000, ExpiryPolicy.DEADLINE);
+		map.put("current".getBytes(), "C".getBytes(), now.get() + 10, ExpiryPolicy.DEADLINE);
+		map.put("future".getBytes(), "F".getBytes(), now.get() + 1000, ExpiryPolicy.DEADLINE);
+		assertFalse(factory.findMapEntryByIndex(0).isBucketed());
+		assertFalse(factory.findMapEntryByIndex(1).isBucketed());
+		assertTrue(factory.findMapEntryByIndex(2).isBucketed());
+		
+		// deleting the expired bucket pages, as the end of a purge does, leaves the entries to the next purge
+		assertEquals(0, factory.deleteExpiredBucketPages(now.get() - 100));
+		now.addAndGet(BigConcurrentHashMapImpl.EXPIRY_WHEEL_TICK_MS);
+		assertEquals(2, map.purge());
+		assertEquals(1, map.size());
+		assertNull(map.get("past".getBytes()));
+		assertEquals("F", new String(map.get("future".getBytes())));
+	}
+
+	@Test
+	public void adaptivePurgeDelayTest() throws IOException {
+		BigConfig config = new BigConfig().setPurgeIntervalInMs(8000L).setMinPurgeIntervalInMs(1000L);
+		map = new BigConcurrentHashMapImpl(testDir, "adaptivePurgeDelayTest", config);
+		assertEquals(8000L, map.purgeDelayInMs);
+		
+		// most entries with time to live expired, speed up
+		map.adaptPurgeDelay(50, 100);
+		assertEquals(4000L, map.purgeDelayInMs);
+		map.adaptPurgeDelay(50, 100);
+		map.adaptPurgeDelay(50, 100);
+		map.adaptPurgeDelay(50, 100);
+		assertEquals(1000L, map.purgeDelayInMs);
+		
+		// some expired, keep the pace
+		map.adaptPurgeDelay(10, 100);
+		assertEquals(1000L, map.purgeDelayInMs);
+		
+		// nothing expired, back off
+		map.adaptPurgeDelay(0, 100);
+		assertEquals(2000L, map.purgeDelayInMs);
+		map.adaptPurgeDelay(0, 0);
+		map.adaptPurgeDelay(0, 0);
+		map.adaptPurgeDelay(0, 0);
+		assertEquals(8000L, map.purgeDelayInMs);
+	}
+
+	@Test
+	public void sharedTickerTest() throws IOException {
+		map = new BigConcurrentHashMapImpl(testDir, "sharedTickerTest", new BigConfig());
+		BigConcurrentHashMapImpl other = new BigConcurrentHashMapImpl(testDir, "sharedTickerTest2", new BigConfig());
+		TickerClock shared = map.ticker;
+		assertNotNull(shared);
+		assertSame(shared, other.ticker); // one ticker thread for every map on the default clock
+		
+		other.close();
+		other.close(); // repeated close releases once
+		assertTrue(shared.isRunning());
+		
+		map.close();
+		map = null;
+		TickerClock next = TickerClock.acquireShared();
+		try {
+			assertTrue(next.isRunning());
+			// stopped with its last map, unless maps of other tests are still open
+			if (next != shared) {
+				assertFalse(shared.isRunning());
+			}
+		} finally {
+			TickerClock.releaseShared(next);
+		}
+	}
+
 	@After
 	public void clear() throws IOException {
 		if (map != null) {
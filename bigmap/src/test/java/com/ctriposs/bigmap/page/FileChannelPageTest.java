@@ -0,0 +1,113 @@
+package com.ctriposs.bigmap.page;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ctriposs.bigmap.TestUtil;
+import com.ctriposs.bigmap.utils.FileUtil;
+
+public class FileChannelPageTest {
+
+	private FileChannelPageFactoryImpl pageFactory;
+	private String testDir = TestUtil.TEST_BASE_DIR + "bigmap/unit/file_channel_page_test";
+
+	@Test
+	public void testAbsoluteAccess() throws IOException {
+		pageFactory = new FileChannelPageFactoryImpl(1024 * 1024, testDir + "/test_absolute_access", 1024, 1024);
+
+		IMappedPage page = this.pageFactory.acquirePage(0);
+		byte[] hello = "hello world".getBytes();
+		byte[] large = new byte[4000]; // larger than both buffers
+		Arrays.fill(large, (byte)7);
+		for(int i = 0; i < 1000; i++) {
+			int position = i * 32;
+			page.putInt(position, i);
+			page.putLong(position + 4, i * 3L);
+			page.put(position + 12, (byte)i);
+			page.putBytes(position + 13, hello, 0, hello.length);
+		}
+		page.putBytes(100000, large, 0, large.length);
+		for(int i = 0; i < 1000; i++) {
+			int position = i * 32;
+			assertEquals(i, page.getInt(position));
+			assertEquals(i * 3L, page.getLong(position + 4));
+			assertEquals((byte)i, page.get(position + 12));
+			byte[] dst = new byte[hello.length + 2];
+			page.getBytes(position + 13, dst, 1, hello.length);
+			assertTrue(Arrays.equals(hello, Arrays.copyOfRange(dst, 1, hello.length + 1)));
+		}
+		assertTrue(Arrays.equals(large, page.getLocal(100000, large.length)));
+		// never written range reads as zeros
+		assertEquals(0L, page.getLong(500000));
+		pageFactory.releasePage(page);
+	}
+
+	@Test
+	public void testCoalescedWrites() throws IOException {
+		pageFactory = new FileChannelPageFactoryImpl(1024 * 1024, testDir + "/test_coalesced_writes", 1024, 4096);
+
+		IMappedPage page = this.pageFactory.acquirePage(0);
+		// contiguous small writes go out as buffer size writes
+		for(int i = 0; i < 1024; i++) {
+			page.putLong(i * 8, i);
+		}
+		page.flush();
+		assertEquals(1024 * 8, pageFactory.getWriteBytes());
+		assertEquals(2, pageFactory.getWriteCount());
+		assertEquals(0, pageFactory.getReadCount());
+
+		// changes survive reopen
+		pageFactory.releasePage(page);
+		pageFactory.releaseCachedPages();
+		assertTrue(page.isClosed());
+		page = this.pageFactory.acquirePage(0);
+		for(int i = 0; i < 1024; i++) {
+			assertEquals(i, page.getLong(i * 8));
+		}
+		assertEquals(1024 * 8, pageFactory.getReadBytes());
+		assertEquals(1, pageFactory.getExistingBackFileIndexSet().size());
+		pageFactory.releasePage(page);
+	}
+
+	@Test
+	public void testDeletePinnedPage() throws IOException {
+		pageFactory = new FileChannelPageFactoryImpl(4 * 1024, testDir + "/test_delete_pinned_page", 1024, 1024);
+
+		IMappedPage pinned = this.pageFactory.acquirePage(0);
+		pinned.putLong(0, 42L);
+		pageFactory.deletePage(0);
+		assertEquals(0, pageFactory.getCacheSize());
+		assertFalse(pinned.isClosed()); // closed by the last release, not under the reader
+		assertEquals(42L, pinned.getLong(0));
+		byte[] dst = new byte[8];
+		pinned.getBytes(0, dst, 0, dst.length);
+		pageFactory.releasePage(pinned);
+		assertTrue(pinned.isClosed());
+		try {
+			pageFactory.acquirePage(0);
+			fail("a deleted page must not be opened again");
+		} catch (PageDeletedException expected) {
+		}
+		assertFalse(pageFactory.getExistingBackFileIndexSet().contains(0L)); // not recreated
+
+		IMappedPage page = this.pageFactory.acquirePage(1);
+		pageFactory.releasePage(page);
+		pageFactory.releaseCachedPages();
+		assertTrue(page.isClosed()); // nobody holds it
+	}
+
+	@After
+	public void clear() throws IOException {
+		if (this.pageFactory != null) {
+			this.pageFactory.deleteAllPages();
+		}
+		FileUtil.deleteDirectory(new File(testDir));
+	}
+
+}
@@ -126,7 +126,8 @@ public class MappedPageFactoryTest {
 		start = System.currentTimeMillis();
 		for(int i = 0; i <= 100; i++) {
 			IMappedPage mappedPageI = mappedPageFactory.acquirePage(i);
-			mappedPageI.getLocal(0).put(("hello " + i).getBytes());
+			byte[] hello = ("hello " + i).getBytes();
+			mappedPageI.putBytes(0, hello, 0, hello.length);
 			mappedPageI.setDirty(true);
 			((MappedPageImpl)mappedPageI).flush();
 			long currentTime = System.currentTimeMillis();
@@ -157,6 +158,58 @@ public class MappedPageFactoryTest {
 		assertTrue(index == 1);
 	}
 	
+	@Test
+	public void testBoundedCache() throws IOException {
+		mappedPageFactory = new MappedPageFactoryImpl(1024, testDir + "/test_bounded_cache", 4);
+
+		IMappedPage pinned = mappedPageFactory.acquirePage(0); // never released
+		pinned.putInt(0, 12345);
+		pinned.setDirty(true);
+		for(long i = 1; i < 20; i++) {
+			IMappedPage page = mappedPageFactory.acquirePage(i);
+			page.putLong(0, i);
+			page.setDirty(true);
+			mappedPageFactory.releasePage(page);
+		}
+		assertEquals(4, mappedPageFactory.getCacheSize());
+		assertEquals(16, mappedPageFactory.getEvictionCount());
+		assertFalse(pinned.isClosed()); // in use pages are never unmapped
+		assertSame(pinned, mappedPageFactory.acquirePage(0));
+
+		// evicted pages were flushed and can be mapped again
+		for(long i = 1; i < 20; i++) {
+			IMappedPage page = mappedPageFactory.acquirePage(i);
+			assertEquals(i, page.getLong(0));
+			mappedPageFactory.releasePage(page);
+		}
+		assertEquals(4, mappedPageFactory.getCacheSize());
+	}
+
+	@Test
+	public void testDeletePinnedPage() throws IOException {
+		mappedPageFactory = new MappedPageFactoryImpl(4 * 1024, testDir + "/test_delete_pinned_page");
+		
+		IMappedPage pinned = mappedPageFactory.acquirePage(0);
+		pinned.putLong(0, 42L);
+		mappedPageFactory.deletePage(0);
+		assertEquals(0, mappedPageFactory.getCacheSize());
+		assertFalse(pinned.isClosed()); // unmapped by the last release, not under the reader
+		assertEquals(42L, pinned.getLong(0));
+		mappedPageFactory.releasePage(pinned);
+		assertTrue(pinned.isClosed());
+		try {
+			mappedPageFactory.acquirePage(0);
+			fail("a deleted page must not be mapped again");
+		} catch (PageDeletedException expected) {
+		}
+		assertFalse(mappedPageFactory.getExistingBackFileIndexSet().contains(0L)); // not recreated
+		
+		IMappedPage page = mappedPageFactory.acquirePage(1);
+		mappedPageFactory.releasePage(page);
+		mappedPageFactory.releaseCachedPages();
+		assertTrue(page.isClosed()); // nobody holds it
+	}
+
 	@After
 	public void clear() throws IOException {
 		if (this.mappedPageFactory != null) {
@@ -291,6 +344,7 @@ public class MappedPageFactoryTest {
 			for(int i : pageNumList) {
 				try {
 					pages[i] = this.pageFactory.acquirePage(i);
+					this.pageFactory.releasePage(pages[i]); // pinned pages are not unmapped by releaseCachedPages
 				} catch (IOException e) {
 					e.printStackTrace();
 					fail("Got IOException when acquiring page " + i);
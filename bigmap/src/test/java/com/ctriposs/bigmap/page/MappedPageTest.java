@@ -4,7 +4,6 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,34 +33,69 @@ public class MappedPageTest {
 		IMappedPage mappedPage = this.mappedPageFactory.acquirePage(0);
 		assertNotNull(mappedPage);
 		
-		ByteBuffer buffer = mappedPage.getLocal(0);
-		assertTrue(buffer.limit() == pageSize);
-		assertTrue(buffer.position() == 0);
-		
-		
 		for(int i = 0; i < 10000; i++) {
 			String hello = "hello world";
 			int length = hello.getBytes().length;
-			mappedPage.getLocal(i * 20).put(hello.getBytes());
+			mappedPage.putBytes(i * 20, hello.getBytes(), 0, length);
 			assertTrue(Arrays.equals(mappedPage.getLocal(i * 20 , length), hello.getBytes()));
 		}
 		
-		buffer = ByteBuffer.allocateDirect(16);
-		buffer.putInt(1);
-		buffer.putInt(2);
-		buffer.putLong(3L);
 		for(int i = 0; i < 10000; i++) {
-			buffer.flip();
-			mappedPage.getLocal(i * 20).put(buffer);
+			mappedPage.putInt(i * 20, 1);
+			mappedPage.putInt(i * 20 + 4, 2);
+			mappedPage.putLong(i * 20 + 8, 3L);
 		}
 		for(int i = 0; i < 10000; i++) {
-			ByteBuffer buf = mappedPage.getLocal(i * 20);
-			assertTrue(1 == buf.getInt());
-			assertTrue(2 == buf.getInt());
-			assertTrue(3L == buf.getLong());
+			assertTrue(1 == mappedPage.getInt(i * 20));
+			assertTrue(2 == mappedPage.getInt(i * 20 + 4));
+			assertTrue(3L == mappedPage.getLong(i * 20 + 8));
 		}
+		assertEquals(0L, mappedPage.getLong(pageSize - 8)); // the page spans the whole page size
 	}
 	
+	@Test
+	public void testAbsoluteAccess() throws IOException {
+		int pageSize = 1024 * 1024;
+		mappedPageFactory = new MappedPageFactoryImpl(pageSize, testDir + "/test_absolute_access");
+
+		IMappedPage mappedPage = this.mappedPageFactory.acquirePage(0);
+		byte[] hello = "hello world".getBytes();
+		for(int i = 0; i < 10000; i++) {
+			int position = i * 32;
+			mappedPage.putInt(position, i);
+			mappedPage.putLong(position + 4, i * 3L);
+			mappedPage.put(position + 12, (byte)i);
+			mappedPage.putBytes(position + 13, hello, 0, hello.length);
+		}
+		for(int i = 0; i < 10000; i++) {
+			int position = i * 32;
+			assertEquals(i, mappedPage.getInt(position));
+			assertEquals(i * 3L, mappedPage.getLong(position + 4));
+			assertEquals((byte)i, mappedPage.get(position + 12));
+			byte[] dst = new byte[hello.length + 2];
+			mappedPage.getBytes(position + 13, dst, 1, hello.length);
+			assertTrue(Arrays.equals(hello, Arrays.copyOfRange(dst, 1, hello.length + 1)));
+			assertTrue(Arrays.equals(hello, mappedPage.getLocal(position + 13, hello.length)));
+		}
+	}
+
+	@Test
+	public void testUnmapOnClose() throws IOException {
+		assertTrue(MappedPageImpl.isUnmapSupported());
+
+		mappedPageFactory = new MappedPageFactoryImpl(1024 * 1024, testDir + "/test_unmap_on_close");
+		IMappedPage mappedPage = this.mappedPageFactory.acquirePage(0);
+		mappedPage.putLong(0, 123L);
+		mappedPage.setDirty(true);
+		mappedPageFactory.releasePage(mappedPage);
+		mappedPageFactory.releaseCachedPages();
+		assertTrue(mappedPage.isClosed());
+
+		// changes were flushed before unmap
+		mappedPage = this.mappedPageFactory.acquirePage(0);
+		assertEquals(123L, mappedPage.getLong(0));
+	}
+
 	@Test
 	public void testMultiThreads() {
 		int pageSize = 1024 * 1024 * 32;
@@ -71,11 +105,11 @@ public class MappedPageTest {
 		int pageNumLimit = 50;
 		
 		Set<IMappedPage> pageSet = Collections.newSetFromMap(new ConcurrentHashMap<IMappedPage, Boolean>());
-		List<ByteBuffer> localBufferList = Collections.synchronizedList(new ArrayList<ByteBuffer>());
+		List<IMappedPage> acquiredPageList = Collections.synchronizedList(new ArrayList<IMappedPage>());
 		
 		Worker[] workers = new Worker[threadNum];
 		for(int i = 0; i < threadNum; i++) {
-			workers[i] = new Worker(i, mappedPageFactory, pageNumLimit, pageSet, localBufferList);
+			workers[i] = new Worker(i, mappedPageFactory, pageNumLimit, pageSet, acquiredPageList);
 		}
 		for(int i = 0; i < threadNum; i++) {
 			workers[i].start();
@@ -89,17 +123,8 @@ public class MappedPageTest {
 			}
 		}
 		
-		assertTrue(localBufferList.size() == threadNum * pageNumLimit);
-		assertTrue(pageSet.size() == pageNumLimit);
-		
-		// verify thread locality
-		for(int i = 0; i < localBufferList.size(); i++) {
-			for(int j = i + 1; j < localBufferList.size(); j++) {
-				if (localBufferList.get(i) == localBufferList.get(j)) {
-					fail("thread local buffer is not thread local");
-				}
-			}
-		}
+		assertTrue(acquiredPageList.size() == threadNum * pageNumLimit);
+		assertTrue(pageSet.size() == pageNumLimit); // all threads share the cached pages
 	}
 	
 	private static class Worker extends Thread {
@@ -107,14 +132,14 @@ public class MappedPageTest {
 		private int pageNumLimit;
 		private IMappedPageFactory pageFactory;
 		private Set<IMappedPage> sharedPageSet;
-		private List<ByteBuffer> localBufferList;
+		private List<IMappedPage> acquiredPageList;
 		
 		public Worker(int id, IMappedPageFactory pageFactory, int pageNumLimit, 
-				Set<IMappedPage> sharedPageSet, List<ByteBuffer> localBufferList) {
+				Set<IMappedPage> sharedPageSet, List<IMappedPage> acquiredPageList) {
 			this.id = id;
 			this.pageFactory = pageFactory;
 			this.sharedPageSet = sharedPageSet;
-			this.localBufferList = localBufferList;
+			this.acquiredPageList = acquiredPageList;
 			this.pageNumLimit = pageNumLimit;
 			
 		}
@@ -124,30 +149,26 @@ public class MappedPageTest {
 				try {
 					IMappedPage page = this.pageFactory.acquirePage(i);
 					sharedPageSet.add(page);
-					localBufferList.add(page.getLocal(0));
+					acquiredPageList.add(page);
 					
 					int startPosition = this.id * 2048;
 					
 					for(int j = 0; j < 100; j++) {
 						String helloj = "hello world " + j;
 						int length = helloj.getBytes().length;
-						page.getLocal(startPosition + j * 20).put(helloj.getBytes());
+						page.putBytes(startPosition + j * 20, helloj.getBytes(), 0, length);
 						assertTrue(Arrays.equals(page.getLocal(startPosition + j * 20 , length), helloj.getBytes()));
 					}
 					
-					ByteBuffer buffer = ByteBuffer.allocateDirect(16);
-					buffer.putInt(1);
-					buffer.putInt(2);
-					buffer.putLong(3L);
 					for(int j = 0; j < 100; j++) {
-						buffer.flip();
-						page.getLocal(startPosition + j * 20).put(buffer);
+						page.putInt(startPosition + j * 20, 1);
+						page.putInt(startPosition + j * 20 + 4, 2);
+						page.putLong(startPosition + j * 20 + 8, 3L);
 					}
 					for(int j = 0; j < 100; j++) {
-						ByteBuffer buf = page.getLocal(startPosition + j * 20);
-						assertTrue(1 == buf.getInt());
-						assertTrue(2 == buf.getInt());
-						assertTrue(3L == buf.getLong());
+						assertTrue(1 == page.getInt(startPosition + j * 20));
+						assertTrue(2 == page.getInt(startPosition + j * 20 + 4));
+						assertTrue(3L == page.getLong(startPosition + j * 20 + 8));
 					}
 					
 				} catch (IOException e) {
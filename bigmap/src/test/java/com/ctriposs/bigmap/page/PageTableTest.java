@@ -0,0 +1,51 @@
+package com.ctriposs.bigmap.page;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PageTableTest {
+
+	@Test
+	public void testPutGetRemove() {
+		PageTable<String> table = new PageTable<String>();
+		assertNull(table.get(0));
+		assertNull(table.get(100000));
+
+		for(long i = 0; i < 5000; i++) {
+			table.put(i, "page" + i);
+		}
+		assertEquals(5000, table.size());
+		for(long i = 0; i < 5000; i++) {
+			assertEquals("page" + i, table.get(i));
+		}
+		assertNull(table.get(5000));
+
+		assertEquals("page10", table.remove(10));
+		assertNull(table.remove(10));
+		assertNull(table.get(10));
+		assertEquals(4999, table.size());
+		assertEquals(4999, table.values().size());
+
+		table.clear();
+		assertEquals(0, table.size());
+		assertNull(table.get(1));
+	}
+
+	@Test
+	public void testOverflow() {
+		PageTable<String> table = new PageTable<String>();
+		table.put(Long.MAX_VALUE, "last");
+		table.put(PageTable.MAX_DIRECT_INDEX, "overflow");
+		table.put(PageTable.MAX_DIRECT_INDEX - 1, "direct");
+
+		assertEquals("last", table.get(Long.MAX_VALUE));
+		assertEquals("overflow", table.get(PageTable.MAX_DIRECT_INDEX));
+		assertEquals("direct", table.get(PageTable.MAX_DIRECT_INDEX - 1));
+		assertEquals(3, table.size());
+		assertEquals(3, table.values().size());
+
+		assertEquals("last", table.remove(Long.MAX_VALUE));
+		assertEquals(2, table.size());
+	}
+}